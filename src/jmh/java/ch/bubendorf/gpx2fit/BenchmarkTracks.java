@@ -0,0 +1,71 @@
+package ch.bubendorf.gpx2fit;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Random;
+
+/**
+ * Reproducible input for the benchmarks.
+ */
+final class BenchmarkTracks {
+
+    private static final long START_TIME = 1682928000000L;
+
+    private BenchmarkTracks() {
+    }
+
+    /**
+     * A random walk with about 25 m between the points, with elevation and one point per 5 s.
+     */
+    static TrackBuffer randomTrack(final int size) {
+        final Random random = new Random(size);
+        final TrackBuffer track = new TrackBuffer(size);
+        double lat = 46.0 + random.nextDouble();
+        double lon = 7.0 + random.nextDouble();
+        double ele = 500 + 1000 * random.nextDouble();
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < size; i++) {
+            heading += random.nextGaussian() * 0.5;
+            lat += Math.cos(heading) * 0.0002;
+            lon += Math.sin(heading) * 0.0003;
+            ele += random.nextGaussian() * 2;
+            track.add(null, lat, lon, ele, START_TIME + i * 5000L);
+        }
+        return track;
+    }
+
+    /**
+     * Writes {@link #randomTrack(int)} as a GPX file with one track to a temporary file.
+     */
+    static Path writeGpx(final int size) throws IOException {
+        final TrackBuffer track = randomTrack(size);
+        final Path file = Files.createTempFile("gpx2fit-bench-" + size + "-", ".gpx");
+        file.toFile().deleteOnExit();
+        try (final BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<gpx version=\"1.1\" creator=\"gpx2fit\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+            writer.write("<trk><name>Benchmark " + size + "</name><trkseg>\n");
+            for (int i = 0; i < track.size(); i++) {
+                writer.write("<trkpt lat=\"" + track.getLat(i) + "\" lon=\"" + track.getLon(i) + "\"><ele>"
+                        + track.getEle(i) + "</ele><time>" + Instant.ofEpochMilli(track.getTime(i))
+                        + "</time></trkpt>\n");
+            }
+            writer.write("</trkseg></trk>\n</gpx>\n");
+        }
+        return file;
+    }
+
+    /**
+     * Options that keep every point, so the whole input is processed.
+     */
+    static Gpx2FitOptions allPoints() {
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setTolerance(0);
+        options.setMaxPoints(0);
+        return options;
+    }
+}
@@ -0,0 +1,47 @@
+package ch.bubendorf.gpx2fit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Total length of a track with WayPoint.distance and WayPoint.distance3D.
+ */
+@State(Scope.Benchmark)
+public class DistanceBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "5000000"})
+    public int points;
+
+    @Param({"VINCENTY", "HAVERSINE", "EQUIRECTANGULAR"})
+    public DistanceModel model;
+
+    private List<WayPoint> wayPoints;
+
+    @Setup
+    public void setup() {
+        wayPoints = BenchmarkTracks.randomTrack(points).toWayPoints();
+    }
+
+    @Benchmark
+    public double distance() {
+        double total = 0;
+        for (int i = 1; i < wayPoints.size(); i++) {
+            total += wayPoints.get(i).distance(wayPoints.get(i - 1), model);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double distance3D() {
+        double total = 0;
+        for (int i = 1; i < wayPoints.size(); i++) {
+            total += wayPoints.get(i).distance3D(wayPoints.get(i - 1), model);
+        }
+        return total;
+    }
+}
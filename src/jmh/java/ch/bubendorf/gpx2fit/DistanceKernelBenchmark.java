@@ -0,0 +1,59 @@
+package ch.bubendorf.gpx2fit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Total length and ECEF coordinates of a track with the batch {@link DistanceKernel}, to compare with the per pair
+ * WayPoint.distance of {@link DistanceBenchmark#distance()}. Only this benchmark adds the module jdk.incubator.vector,
+ * the others measure the JVM as it runs in production.
+ */
+@State(Scope.Benchmark)
+@Fork(jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DistanceKernelBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "5000000"})
+    public int points;
+
+    @Param({"VINCENTY", "HAVERSINE", "EQUIRECTANGULAR"})
+    public DistanceModel model;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private DistanceKernel distanceKernel;
+    private double[] lat;
+    private double[] lon;
+    private double[] distances;
+    private double[] ecef;
+
+    @Setup
+    public void setup() {
+        distanceKernel = kernel.equals("vector") ? DistanceKernel.get() : DistanceKernel.scalar();
+        final TrackBuffer track = BenchmarkTracks.randomTrack(points);
+        lat = track.latArray();
+        lon = track.lonArray();
+        distances = new double[points];
+        ecef = new double[3 * points];
+    }
+
+    @Benchmark
+    public double distances() {
+        distanceKernel.distances(model, lat, lon, 1, points, distances);
+        double total = 0;
+        for (int i = 1; i < points; i++) {
+            total += distances[i];
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double[] toEcef() {
+        distanceKernel.toEcef(lat, lon, 0, points, ecef);
+        return ecef;
+    }
+}
@@ -0,0 +1,44 @@
+package ch.bubendorf.gpx2fit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loading a GPX file in the Gpx2Fit constructor, without any reduction. The distances of the track points are
+ * computed while reading, in the pipelined mode on another thread than the parsing.
+ */
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "5000000"})
+    public int points;
+
+    @Param({"jpx", "streaming", "pipelined"})
+    public String parser;
+
+    private Path file;
+    private Gpx2FitOptions options;
+
+    @Setup
+    public void setup() throws IOException {
+        file = BenchmarkTracks.writeGpx(points);
+        options = BenchmarkTracks.allPoints();
+        options.setStreamingParser(!parser.equals("jpx"));
+        options.setPipelined(parser.equals("pipelined"));
+    }
+
+    @Benchmark
+    public Gpx2Fit parse() throws IOException {
+        try (final InputStream in = Files.newInputStream(file)) {
+            return new Gpx2Fit("benchmark", in, options);
+        }
+    }
+}
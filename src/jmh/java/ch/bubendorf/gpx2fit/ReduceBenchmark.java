@@ -0,0 +1,32 @@
+package ch.bubendorf.gpx2fit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reducer.reduce with several tolerances.
+ */
+@State(Scope.Benchmark)
+public class ReduceBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "5000000"})
+    public int points;
+
+    @Param({"1", "5", "20"})
+    public double tolerance;
+
+    private TrackBuffer track;
+
+    @Setup
+    public void setup() {
+        track = BenchmarkTracks.randomTrack(points);
+    }
+
+    @Benchmark
+    public TrackBuffer reduce() {
+        return Reducer.reduce(track, tolerance);
+    }
+}
@@ -0,0 +1,62 @@
+package ch.bubendorf.gpx2fit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Wall time of single-file conversions in new JVMs, with and without the AppCDS archive. JMH measures inside a
+ * running JVM, so this is a plain main that starts the processes itself.
+ * <p>
+ * Usage: StartupBenchmark jar archive gpx [runs]
+ */
+public class StartupBenchmark {
+
+    private static final int WARMUP_RUNS = 3;
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: StartupBenchmark jar archive gpx [runs]");
+            System.exit(1);
+        }
+        final String jar = args[0];
+        final String archive = args[1];
+        final String gpx = args[2];
+        final int runs = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        final Path fit = Files.createTempFile("startup", ".fit");
+        try {
+            run("jar", List.of(java, "-jar", jar, gpx, fit.toString()), runs);
+            if (new File(archive).isFile()) {
+                run("jar + AppCDS", List.of(java, "-XX:SharedArchiveFile=" + archive, "-Xshare:on", "-jar", jar, gpx,
+                        fit.toString()), runs);
+            } else {
+                System.out.println("No AppCDS archive " + archive + ", run \"gradle appCds\" first");
+            }
+        } finally {
+            Files.deleteIfExists(fit);
+        }
+    }
+
+    private static void run(final String name, final List<String> command, final int runs)
+            throws IOException, InterruptedException {
+        final long[] millis = new long[runs];
+        for (int i = -WARMUP_RUNS; i < runs; i++) {
+            final long start = System.nanoTime();
+            final Process process = new ProcessBuilder(command).inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException(name + " failed: " + command);
+            }
+            if (i >= 0) {
+                millis[i] = (System.nanoTime() - start) / 1_000_000;
+            }
+        }
+        Arrays.sort(millis);
+        System.out.printf(Locale.ROOT, "%-14s min %5d ms, median %5d ms, max %5d ms (%d runs)%n", name, millis[0],
+                millis[runs / 2], millis[runs - 1], runs);
+    }
+}
@@ -0,0 +1,52 @@
+package ch.bubendorf.gpx2fit;
+
+import ch.bubendorf.gpx2fit.fit.DirectFitEncoder;
+import ch.bubendorf.gpx2fit.fit.FitBufferEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+/**
+ * Gpx2Fit.writeFit with all points, including the statistics of the course, into the SDK and the direct encoder.
+ */
+@State(Scope.Benchmark)
+public class WriteFitBenchmark {
+
+    private static final Date DATE = new Date(1682928000000L);
+
+    @Param({"1000", "10000", "100000", "1000000", "5000000"})
+    public int points;
+
+    private Gpx2Fit gpx2Fit;
+
+    @Setup
+    public void setup() throws IOException {
+        final Path file = BenchmarkTracks.writeGpx(points);
+        try (final InputStream in = Files.newInputStream(file)) {
+            gpx2Fit = new Gpx2Fit("benchmark", in, BenchmarkTracks.allPoints());
+        }
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public byte[] bufferEncoder() {
+        final FitBufferEncoder encoder = new FitBufferEncoder();
+        gpx2Fit.writeFit(encoder, DATE);
+        return encoder.close();
+    }
+
+    @Benchmark
+    public byte[] directEncoder() {
+        final DirectFitEncoder encoder = new DirectFitEncoder();
+        gpx2Fit.writeFit(encoder, DATE);
+        return encoder.close();
+    }
+}
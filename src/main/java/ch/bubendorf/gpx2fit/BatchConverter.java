@@ -0,0 +1,164 @@
+package ch.bubendorf.gpx2fit;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts all GPX files below a directory (or matching a glob pattern) into a mirrored tree of FIT files.
+ * The files are converted on a pool of worker threads. Every file gets its own {@link Gpx2Fit} instance, the
+ * {@link Gpx2FitOptions} are shared read-only between the workers.
+ * A failing file is reported and does not stop the conversion of the remaining files.
+ * With a {@link ConversionCache}, unchanged files are copied from the cache instead of converted again.
+ */
+public class BatchConverter {
+
+    private final Gpx2FitOptions options;
+    private final int threads;
+    private final PrintStream log;
+    private final ConversionCache cache;
+
+    public BatchConverter(final Gpx2FitOptions options, final int threads, final PrintStream log) {
+        this(options, threads, log, null);
+    }
+
+    /**
+     * @param cache Cache of the converted files or null
+     */
+    public BatchConverter(final Gpx2FitOptions options, final int threads, final PrintStream log,
+                          final ConversionCache cache) {
+        this.options = options;
+        this.threads = Math.max(1, threads);
+        this.log = log;
+        this.cache = cache;
+    }
+
+    /**
+     * Is the input parameter a directory or a glob pattern and therefore something for the batch mode?
+     */
+    public static boolean isBatchInput(final String input) {
+        return isGlob(input) || Files.isDirectory(Path.of(input));
+    }
+
+    private static boolean isGlob(final String input) {
+        return input.indexOf('*') >= 0 || input.indexOf('?') >= 0 || input.indexOf('[') >= 0 || input.indexOf('{') >= 0;
+    }
+
+    /**
+     * Convert all files selected by the input directory or glob pattern.
+     *
+     * @param input  Directory (all *.gpx files below it are converted) or glob pattern (e.g. "tracks/**.gpx")
+     * @param output Root directory of the mirrored output tree
+     * @return Number of files which could NOT be converted
+     */
+    public int convert(final String input, final Path output) throws IOException, InterruptedException {
+        final Path baseDir;
+        final PathMatcher matcher;
+        if (isGlob(input)) {
+            // Split the pattern into the directory part without any wildcards and the pattern itself
+            final String normalized = input.replace('\\', '/');
+            final int firstWildcard = indexOfWildcard(normalized);
+            final int lastSlash = normalized.lastIndexOf('/', firstWildcard);
+            baseDir = Path.of(lastSlash < 0 ? "." : normalized.substring(0, lastSlash + 1));
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalized.substring(lastSlash + 1));
+        } else {
+            baseDir = Path.of(input);
+            matcher = path -> path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gpx");
+        }
+
+        final List<Path> inputFiles;
+        try (final Stream<Path> files = Files.walk(baseDir)) {
+            inputFiles = files.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(baseDir.relativize(path)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        final AtomicInteger failures = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(inputFiles.size());
+            for (final Path inputFile : inputFiles) {
+                final Path outputFile = output.resolve(toFitName(baseDir.relativize(inputFile)));
+                futures.add(executor.submit(() -> {
+                    try {
+                        convertFile(inputFile, outputFile);
+                    } catch (final Exception | Error e) {
+                        // Also an Error of one file, e.g. an OutOfMemoryError of a huge GPX, must not stop the batch
+                        failures.incrementAndGet();
+                        log.println("Failed to convert " + inputFile + ": " + e);
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (final ExecutionException e) {
+            // Can not happen as the task catches all the exceptions
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.println("Converted " + (inputFiles.size() - failures.get()) + " of " + inputFiles.size() +
+                " files, " + failures.get() + " failed");
+        if (cache != null) {
+            log.println(cache);
+        }
+        return failures.get();
+    }
+
+    private static int indexOfWildcard(final String input) {
+        int index = input.length();
+        for (final char c : new char[]{'*', '?', '[', '{'}) {
+            final int i = input.indexOf(c);
+            if (i >= 0) {
+                index = Math.min(index, i);
+            }
+        }
+        return index;
+    }
+
+    private static Path toFitName(final Path relativePath) {
+        final String fileName = relativePath.getFileName().toString();
+        final int dot = fileName.lastIndexOf('.');
+        final String fitName = (dot > 0 ? fileName.substring(0, dot) : fileName) + ".fit";
+        return relativePath.resolveSibling(fitName);
+    }
+
+    private void convertFile(final Path inputFile, final Path outputFile) throws IOException {
+        final Path parent = outputFile.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Date date = new Date(Files.getLastModifiedTime(inputFile).toMillis());
+        if (cache != null) {
+            try (final InputStream fit = cache.convert(() -> new BufferedInputStream(Files.newInputStream(inputFile)),
+                    inputFile.toString(), options, date)) {
+                Files.copy(fit, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+        try (final InputStream inputStream = new BufferedInputStream(Files.newInputStream(inputFile))) {
+            final Gpx2Fit gpx2fit = new Gpx2Fit(inputFile.toString(), inputStream, options);
+            gpx2fit.writeFit(outputFile.toFile(), date);
+        }
+    }
+}
@@ -1,8 +1,31 @@
 package ch.bubendorf.gpx2fit;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
 public abstract class BuildVersion {
+
+    private static final String BUILD_ID = readBuildId();
+
     public static String getBuildVersion() {
         final String version = BuildVersion.class.getPackage().getImplementationVersion();
         return version == null ? "dev" : version;
     }
+
+    /**
+     * SHA-256 of the classes and the libraries of this build, written by the gradle task buildId. Unlike the version
+     * it changes with every change of the code. "dev" if the classes have not been built by gradle.
+     */
+    public static String getBuildId() {
+        return BUILD_ID;
+    }
+
+    private static String readBuildId() {
+        try (final InputStream in = BuildVersion.class.getResourceAsStream("build-id")) {
+            return in == null ? "dev" : new String(in.readAllBytes(), StandardCharsets.US_ASCII).trim();
+        } catch (final IOException e) {
+            return "dev";
+        }
+    }
 }
@@ -7,7 +7,7 @@ import java.util.List;
 @SuppressWarnings("ALL")
 public class CommandLineArguments {
 
-    @Parameter(description="[input file|-] [output file|-]")
+    @Parameter(description="[input file|directory|glob|-] [output file|directory|-]")
     private List<String> parameters = new ArrayList<>();
 
     @Parameter(names = {"-h", "--help"}, description="Show this help", help = true)
@@ -19,6 +19,12 @@ public class CommandLineArguments {
     @Parameter(names = {"-d", "--tolerance"}, description="Min distance/tolerance of the track points to keep")
     private double tolerance = 0;
 
+    @Parameter(names = {"-n", "--max-points"}, description="Max number of points in the FIT (0 = no limit)")
+    private int maxPoints = 1000;
+
+    @Parameter(names = {"-b", "--budget"}, description="Reduce the track to exactly the max number of points by removing the least significant points")
+    private boolean pointBudget = false;
+
     @Parameter(names = {"-t", "--track"}, description="Process only Tracks (<trk / trkseg>)")
     private boolean tracks = false;
 
@@ -28,6 +34,51 @@ public class CommandLineArguments {
     @Parameter(names = {"-w", "--waypoint"}, description="Process only Waypoints (<wpts>)")
     private boolean waypoints = false;
 
+    @Parameter(names = {"-s", "--streaming"}, description="Read the GPX with the streaming parser instead of jpx")
+    private boolean streamingParser = false;
+
+    @Parameter(names = {"-p", "--parallel"}, description="Reduce large tracks and compute their distances with all processors")
+    private boolean parallelReduce = false;
+
+    @Parameter(names = {"--pipeline"}, description="Parse the GPX with the streaming parser on a separate thread while the points are processed")
+    private boolean pipelined = false;
+
+    @Parameter(names = {"--dedupe"}, description="Drop the track points at the same position (in semicircles) as the previous one")
+    private boolean dedupePositions = false;
+
+    @Parameter(names = {"--dedupe-time"}, description="Drop the track points with the same time as the previous one")
+    private boolean dedupeTimes = false;
+
+    @Parameter(names = {"-m", "--distance-model"}, description="Model for the distance calculations")
+    private DistanceModel distanceModel = DistanceModel.VINCENTY;
+
+    @Parameter(names = {"--low-memory"}, description="Convert a large GPX file without keeping the track points in memory by reading it twice (no --tolerance or --budget)")
+    private boolean lowMemory = false;
+
+    @Parameter(names = {"--stats"}, description="Print the times, allocations and point counts of the conversion as JSON to stderr (in the worker mode: in the result of every job)")
+    private boolean stats = false;
+
+    @Parameter(names = {"-j", "--threads"}, description="Number of worker threads for the batch conversion of a directory or glob")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--worker"}, description="Read conversion jobs from stdin (one JSON object per line) and write a JSON result per job to stdout")
+    private boolean worker = false;
+
+    @Parameter(names = {"--serve"}, description="Run an HTTP server on this port: POST /convert (GPX in, FIT out) and GET /metrics")
+    private int servePort = 0;
+
+    @Parameter(names = {"--max-concurrent"}, description="Max number of concurrent conversions of the HTTP server")
+    private int maxConcurrent = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--max-size"}, description="Max size of a GPX sent to the HTTP server in MB")
+    private int maxSize = 50;
+
+    @Parameter(names = {"--cache"}, description="Directory to cache the converted FIT files in")
+    private String cacheDir = null;
+
+    @Parameter(names = {"--cache-size"}, description="Max size of the cache in MB")
+    private int cacheSize = 500;
+
     public List<String> getParameters() {
         return parameters;
     }
@@ -52,6 +103,14 @@ public class CommandLineArguments {
         return tolerance;
     }
 
+    public int getMaxPoints() {
+        return maxPoints;
+    }
+
+    public boolean isPointBudget() {
+        return pointBudget;
+    }
+
     public boolean isTracks() {
         return tracks;
     }
@@ -64,7 +123,95 @@ public class CommandLineArguments {
         return waypoints;
     }
 
+    public boolean isStreamingParser() {
+        return streamingParser;
+    }
+
+    public boolean isParallelReduce() {
+        return parallelReduce;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public boolean isDedupePositions() {
+        return dedupePositions;
+    }
+
+    public boolean isDedupeTimes() {
+        return dedupeTimes;
+    }
+
+    public DistanceModel getDistanceModel() {
+        return distanceModel;
+    }
+
+    public boolean isLowMemory() {
+        return lowMemory;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isStats() {
+        return stats;
+    }
+
+    public boolean isWorker() {
+        return worker;
+    }
+
+    public int getServePort() {
+        return servePort;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
     public boolean isValid() {
+        if (threads < 1) {
+            System.err.println("The number of threads must be at least 1");
+            return false;
+        }
+        if (servePort < 0 || servePort > 65535) {
+            System.err.println("The port must be between 1 and 65535");
+            return false;
+        }
+        if (maxConcurrent < 1) {
+            System.err.println("The max number of concurrent conversions must be at least 1");
+            return false;
+        }
+        if (maxSize < 1) {
+            System.err.println("The max size must be at least 1 MB");
+            return false;
+        }
+        if (cacheSize < 1) {
+            System.err.println("The cache size must be at least 1 MB");
+            return false;
+        }
+        if (maxPoints < 0 || maxPoints == 1) {
+            System.err.println("The max number of points must be 0 or at least 2");
+            return false;
+        }
+        if (lowMemory && (tolerance > 0 || pointBudget)) {
+            System.err.println("The track can not be reduced in the low memory mode");
+            return false;
+        }
         return true;
     }
 }
\ No newline at end of file
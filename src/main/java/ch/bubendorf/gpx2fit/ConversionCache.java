@@ -0,0 +1,260 @@
+package ch.bubendorf.gpx2fit;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache of converted FIT files in a directory.
+ * <p>
+ * The key is the SHA-256 of the GPX, the course name, the creation date, all the {@link Gpx2FitOptions} and the
+ * build version, so a cached FIT is always the same as a new conversion. Without a date, the cached FIT keeps the
+ * creation time of its first conversion. A new FIT is written to a temporary file and then moved into place, so
+ * other threads and processes never see a partial file.
+ * <p>
+ * When the files get larger than maxSize, the least recently used files are deleted. The last use is the
+ * modification time of the file, so the order survives a restart. The size is only tracked per instance, several
+ * processes sharing a directory can therefore exceed maxSize until the next start.
+ */
+public class ConversionCache {
+
+    private static final String SUFFIX = ".fit";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Temporary files older than this are left over from a crash
+    private static final long STALE_TEMP_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final Path dir;
+    private final long maxSize;
+    // Key -> file size in access order, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Something that can be read more than once: the first time for the key, the second time for the conversion.
+     */
+    @FunctionalInterface
+    public interface Source {
+        InputStream open() throws IOException;
+    }
+
+    public ConversionCache(final Path dir, final long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        Files.createDirectories(dir);
+
+        final long staleTime = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        final List<Path> files;
+        try (final Stream<Path> list = Files.list(dir)) {
+            files = list.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        final Map<Path, Long> lastUse = new LinkedHashMap<>();
+        for (final Path file : files) {
+            final String fileName = file.getFileName().toString();
+            final long modified = Files.getLastModifiedTime(file).toMillis();
+            if (fileName.endsWith(TEMP_SUFFIX)) {
+                if (modified < staleTime) {
+                    Files.deleteIfExists(file);
+                }
+            } else if (fileName.endsWith(SUFFIX)) {
+                lastUse.put(file, modified);
+            }
+        }
+        final List<Path> sorted = lastUse.keySet().stream()
+                .sorted(Comparator.comparing(lastUse::get))
+                .collect(Collectors.toList());
+        for (final Path file : sorted) {
+            final String fileName = file.getFileName().toString();
+            final long fileSize = Files.size(file);
+            entries.put(fileName.substring(0, fileName.length() - SUFFIX.length()), fileSize);
+            size += fileSize;
+        }
+        evict();
+    }
+
+    /**
+     * The key of a conversion.
+     *
+     * @param gpx  The GPX, read completely
+     * @param date Creation time of the FIT or null
+     */
+    public static String key(final InputStream gpx, final String name, final Gpx2FitOptions options, final Date date)
+            throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(),
+                digest));
+        // The version stays the same across changes of the output, the build id does not
+        out.writeUTF(BuildVersion.getBuildId());
+        out.writeUTF(name);
+        out.writeLong(date == null ? Long.MIN_VALUE : date.getTime());
+        // All the fields of the options which change the FIT, a new option must be added here too. Not the parser
+        // and the scheduling (streamingParser, parallelReduce, pipelined), which produce identical FIT files, so a
+        // file converted with -s hits the entry written without it.
+        out.writeDouble(options.getSpeed());
+        out.writeBoolean(options.isUse3dDistance());
+        out.writeBoolean(options.isForceSpeed());
+        out.writeBoolean(options.isInjectCoursePoints());
+        out.writeBoolean(options.isWalkingGrade());
+        out.writeDouble(options.getMinRoutePointDistance());
+        out.writeDouble(options.getMinCoursePointDistance());
+        out.writeInt(options.getMaxPoints());
+        out.writeBoolean(options.isPointBudget());
+        out.writeDouble(options.getTolerance());
+        out.writeBoolean(options.isDedupePositions());
+        out.writeBoolean(options.isDedupeTimes());
+        out.writeUTF(options.getDistanceModel().name());
+        out.writeBoolean(options.isTracks());
+        out.writeBoolean(options.isRoutes());
+        out.writeBoolean(options.isWaypoints());
+        gpx.transferTo(out);
+        out.flush();
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * The cached FIT or null if there is none.
+     */
+    public synchronized InputStream lookup(final String key) throws IOException {
+        if (entries.get(key) != null) {
+            final Path file = file(key);
+            try {
+                final InputStream in = Files.newInputStream(file);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                hits++;
+                return in;
+            } catch (final NoSuchFileException e) {
+                // Deleted by another process
+                size -= entries.remove(key);
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Converts the GPX into the cache.
+     *
+     * @return The new FIT
+     */
+    public InputStream store(final String key, final Gpx2Fit gpx2Fit, final Date date) throws IOException {
+        final Path temp = Files.createTempFile(dir, key, TEMP_SUFFIX);
+        try {
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                gpx2Fit.writeFit(channel, date);
+            }
+            final long fileSize = Files.size(temp);
+            synchronized (this) {
+                final Path file = file(key);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                // Opened before the eviction, as the new file might be larger than the whole cache
+                final InputStream in = Files.newInputStream(file);
+                final Long previous = entries.put(key, fileSize);
+                size += fileSize - (previous == null ? 0 : previous);
+                evict();
+                return in;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * The FIT of the GPX, from the cache or converted into the cache.
+     *
+     * @param gpx  The GPX, read once for the key and a second time for the conversion
+     * @param date Creation time of the FIT or null
+     */
+    public InputStream convert(final Source gpx, final String name, final Gpx2FitOptions options, final Date date)
+            throws IOException {
+        return convert(gpx, name, options, date, null);
+    }
+
+    /**
+     * The FIT of the GPX, from the cache or converted into the cache.
+     *
+     * @param stats Collects the times and counts of a conversion (nothing on a cache hit), may be null
+     */
+    public InputStream convert(final Source gpx, final String name, final Gpx2FitOptions options, final Date date,
+                               final ConversionStats stats) throws IOException {
+        final String key;
+        try (final InputStream in = gpx.open()) {
+            key = key(in, name, options, date);
+        }
+        final InputStream cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Gpx2Fit gpx2Fit;
+        try (final InputStream in = gpx.open()) {
+            gpx2Fit = new Gpx2Fit(name, in, options, stats);
+        }
+        return store(key, gpx2Fit, date);
+    }
+
+    private void evict() throws IOException {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            Files.deleteIfExists(file(eldest.getKey()));
+            size -= eldest.getValue();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private Path file(final String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Total size of the cached files in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Cache: " + hits + " hits, " + misses + " misses, " + evictions + " evictions, " + size + " bytes";
+    }
+}
@@ -0,0 +1,27 @@
+package ch.bubendorf.gpx2fit;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of a phase of a conversion, e.g. recorded with
+ * <code>java -XX:StartFlightRecording:filename=gpx2fit.jfr -jar gpx2fit-1.0-all.jar ...</code>
+ */
+@Name("ch.bubendorf.gpx2fit.ConversionPhase")
+@Label("Conversion Phase")
+@Category("gpx2fit")
+@Description("A phase of a GPX to FIT conversion")
+final class ConversionPhaseEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Course")
+    String course;
+
+    @Label("Points")
+    @Description("Points read, left after the reduction, used for the statistics or written")
+    int points;
+}
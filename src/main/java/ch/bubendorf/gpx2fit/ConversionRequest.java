@@ -0,0 +1,127 @@
+package ch.bubendorf.gpx2fit;
+
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The options of a single conversion, given as name/value pairs with the names of the long command line options.
+ * Used by the {@link ConversionServer} and the {@link Worker}.
+ */
+final class ConversionRequest {
+
+    final Gpx2FitOptions options;
+    String name;
+    Date modified;
+    // Has a point type been selected?
+    private boolean selection;
+
+    /**
+     * @param defaults The options of a request without any parameters
+     * @param name     Default course name
+     */
+    ConversionRequest(final Gpx2FitOptions defaults, final String name) {
+        this.options = new Gpx2FitOptions(defaults);
+        this.name = name;
+    }
+
+    /**
+     * Sets one parameter. An empty value of a boolean parameter means true.
+     *
+     * @throws IllegalArgumentException Unknown parameter or invalid value
+     */
+    void set(final String name, final String value) {
+        switch (name) {
+            case "tolerance":
+                options.setTolerance(parseDouble(name, value));
+                break;
+            case "max-points":
+                final long maxPoints = parseLong(name, value);
+                if (maxPoints < 0 || maxPoints == 1 || maxPoints > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("The max number of points must be 0 or at least 2");
+                }
+                options.setMaxPoints((int) maxPoints);
+                break;
+            case "budget":
+                options.setPointBudget(parseBoolean(name, value));
+                break;
+            case "track":
+            case "route":
+            case "waypoint":
+                if (!selection) {
+                    // Like on the command line: Only the given point types
+                    selection = true;
+                    options.setTracks(false);
+                    options.setRoutes(false);
+                    options.setWaypoints(false);
+                }
+                if (name.equals("track")) {
+                    options.setTracks(parseBoolean(name, value));
+                } else if (name.equals("route")) {
+                    options.setRoutes(parseBoolean(name, value));
+                } else {
+                    options.setWaypoints(parseBoolean(name, value));
+                }
+                break;
+            case "streaming":
+                options.setStreamingParser(parseBoolean(name, value));
+                break;
+            case "parallel":
+                options.setParallelReduce(parseBoolean(name, value));
+                break;
+            case "pipeline":
+                options.setPipelined(parseBoolean(name, value));
+                break;
+            case "dedupe":
+                options.setDedupePositions(parseBoolean(name, value));
+                break;
+            case "dedupe-time":
+                options.setDedupeTimes(parseBoolean(name, value));
+                break;
+            case "distance-model":
+                try {
+                    options.setDistanceModel(DistanceModel.valueOf(value.toUpperCase(Locale.ROOT)));
+                } catch (final IllegalArgumentException e) {
+                    throw invalid(name, value);
+                }
+                break;
+            case "name":
+                this.name = value;
+                break;
+            case "modified":
+                modified = new Date(parseLong(name, value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown parameter " + name);
+        }
+    }
+
+    private static double parseDouble(final String name, final String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (final NumberFormatException e) {
+            throw invalid(name, value);
+        }
+    }
+
+    private static long parseLong(final String name, final String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            throw invalid(name, value);
+        }
+    }
+
+    private static boolean parseBoolean(final String name, final String value) {
+        if (value.isEmpty() || value.equals("true")) {
+            return true;
+        }
+        if (value.equals("false")) {
+            return false;
+        }
+        throw invalid(name, value);
+    }
+
+    private static IllegalArgumentException invalid(final String name, final String value) {
+        return new IllegalArgumentException("Invalid value of " + name + ": " + value);
+    }
+}
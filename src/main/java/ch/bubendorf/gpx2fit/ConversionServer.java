@@ -0,0 +1,320 @@
+package ch.bubendorf.gpx2fit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Converts GPX to FIT over HTTP with the JDK's built-in HTTP server.
+ * <ul>
+ *     <li>POST /convert: GPX in the request body, FIT in the response body. The options can be given as query
+ *     parameters with the names of the long command line options (e.g. /convert?max-points=500&amp;budget), the
+ *     options of the server are the defaults. "name" is the course name (default "course"), "modified" the
+ *     creation time of the FIT in ms since 1970.</li>
+ *     <li>GET /metrics: Request counters and latencies in the Prometheus text format.</li>
+ * </ul>
+ * Every request runs on its own thread. At most maxConcurrent conversions run at the same time, further requests
+ * are rejected with 503. Request bodies larger than maxRequestSize are rejected with 413. With a
+ * {@link ConversionCache}, the whole request body is read first to look up the FIT in the cache.
+ */
+public class ConversionServer {
+
+    private static final String FIT_CONTENT_TYPE = "application/vnd.ant.fit";
+    private static final String DEFAULT_NAME = "course";
+    // Max number of bytes read from a request body that is too large
+    private static final long DISCARD_LIMIT = 16 * 1024 * 1024;
+
+    private final Gpx2FitOptions defaults;
+    private final long maxRequestSize;
+    private final Semaphore permits;
+    private final ConversionCache cache;
+    private final ServerMetrics metrics;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ConversionServer(final Gpx2FitOptions defaults, final int maxConcurrent, final long maxRequestSize) {
+        this(defaults, maxConcurrent, maxRequestSize, null);
+    }
+
+    /**
+     * @param cache Cache of the converted files or null
+     */
+    public ConversionServer(final Gpx2FitOptions defaults, final int maxConcurrent, final long maxRequestSize,
+                            final ConversionCache cache) {
+        this.defaults = defaults;
+        this.maxRequestSize = maxRequestSize;
+        this.permits = new Semaphore(maxConcurrent);
+        this.cache = cache;
+        this.metrics = new ServerMetrics(cache);
+    }
+
+    public void start(final InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/convert", this::handleConvert);
+        server.createContext("/metrics", this::handleMetrics);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops the server after waiting at most delay seconds for the running requests.
+     */
+    public void stop(final int delay) {
+        server.stop(delay);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleConvert(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Use POST");
+                return;
+            }
+            if (!permits.tryAcquire()) {
+                metrics.rejected();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Too many concurrent conversions");
+                return;
+            }
+            try {
+                convert(exchange);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private void convert(final HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
+        metrics.started();
+        final CountingInputStream in = new CountingInputStream(exchange.getRequestBody(), maxRequestSize);
+        final CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody());
+        boolean success = false;
+        try {
+            final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null) {
+                final long length;
+                try {
+                    length = Long.parseLong(contentLength.trim());
+                } catch (final NumberFormatException e) {
+                    sendText(exchange, 400, "Invalid Content-Length: " + contentLength);
+                    return;
+                }
+                if (length > maxRequestSize) {
+                    sendTooLarge(exchange);
+                    return;
+                }
+            }
+
+            final ConversionRequest request;
+            try {
+                request = parseQuery(exchange.getRequestURI().getRawQuery(), defaults);
+            } catch (final IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+            InputStream gpx = new BufferedInputStream(in);
+            String key = null;
+            InputStream fit = null;
+            if (cache != null) {
+                // The key needs the whole GPX before the conversion
+                final byte[] bytes;
+                try {
+                    bytes = in.readAllBytes();
+                } catch (final IOException e) {
+                    if (in.isTooLarge()) {
+                        sendTooLarge(exchange);
+                        return;
+                    }
+                    throw e;
+                }
+                key = ConversionCache.key(new ByteArrayInputStream(bytes), request.name, request.options,
+                        request.modified);
+                fit = cache.lookup(key);
+                gpx = new ByteArrayInputStream(bytes);
+            }
+
+            if (fit == null) {
+                final Gpx2Fit gpx2Fit;
+                try {
+                    gpx2Fit = new Gpx2Fit(request.name, gpx, request.options);
+                } catch (final IOException | RuntimeException e) {
+                    if (in.isTooLarge()) {
+                        sendTooLarge(exchange);
+                    } else {
+                        sendText(exchange, 400, "Invalid GPX: " + e.getMessage());
+                    }
+                    return;
+                }
+                if (key == null) {
+                    exchange.getResponseHeaders().set("Content-Type", FIT_CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, 0);
+                    gpx2Fit.writeFit(out, request.modified);
+                    out.close();
+                    success = true;
+                    return;
+                }
+                fit = cache.store(key, gpx2Fit, request.modified);
+            }
+
+            try (final InputStream cached = fit) {
+                exchange.getResponseHeaders().set("Content-Type", FIT_CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, 0);
+                cached.transferTo(out);
+            }
+            out.close();
+            success = true;
+        } finally {
+            metrics.completed(System.nanoTime() - start, in.getCount(), out.getCount(), success);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException Unknown parameter or invalid value
+     */
+    static ConversionRequest parseQuery(final String query, final Gpx2FitOptions defaults) {
+        final ConversionRequest request = new ConversionRequest(defaults, DEFAULT_NAME);
+        if (query == null || query.isEmpty()) {
+            return request;
+        }
+        for (final String parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            final int equals = parameter.indexOf('=');
+            final String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals),
+                    StandardCharsets.UTF_8);
+            final String value = equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1),
+                    StandardCharsets.UTF_8);
+            request.set(name, value);
+        }
+        return request;
+    }
+
+    private void handleMetrics(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendText(exchange, 405, "Use GET");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            final byte[] body = metrics.format().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    /**
+     * Answers with 413. The rest of a not too large body is read first, else the client might not get the answer
+     * when the connection is closed. The body is read and not skipped because skip() of the JDK's request body
+     * ignores the Content-Length and blocks on the socket.
+     */
+    private static void sendTooLarge(final HttpExchange exchange) throws IOException {
+        final InputStream body = exchange.getRequestBody();
+        final byte[] buffer = new byte[8192];
+        long discarded = 0;
+        int n;
+        while (discarded < DISCARD_LIMIT && (n = body.read(buffer)) >= 0) {
+            discarded += n;
+        }
+        sendText(exchange, 413, "The GPX is too large");
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String text)
+            throws IOException {
+        final byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Counts the bytes read and fails when more than maxSize bytes are read.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final long maxSize;
+        private long count;
+
+        private CountingInputStream(final InputStream in, final long maxSize) {
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                add(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                add(n);
+            }
+            return n;
+        }
+
+        private void add(final int n) throws IOException {
+            count += n;
+            if (count > maxSize) {
+                throw new IOException("The GPX is larger than " + maxSize + " bytes");
+            }
+        }
+
+        private boolean isTooLarge() {
+            return count > maxSize;
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+}
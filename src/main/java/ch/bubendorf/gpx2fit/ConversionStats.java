@@ -0,0 +1,127 @@
+package ch.bubendorf.gpx2fit;
+
+import java.util.Locale;
+
+/**
+ * Wall time and allocation per phase and the point counts of a conversion, collected when an instance is given to
+ * {@link Gpx2Fit}. The times of a phase run more than once (e.g. the encoding of both passes of
+ * {@link Gpx2Fit#writeFit(java.io.OutputStream, java.util.Date)}) are added up, the counts are those of the last
+ * run. The allocation is measured on the converting thread only, without the workers of the parallel reduction.
+ */
+public class ConversionStats {
+
+    public enum Phase {
+        /** Reading the GPX */
+        PARSE,
+        /** Reducer and VisvalingamReducer */
+        REDUCE,
+        /** The {@link TrackSummary} of a reduced track or of the route or waypoints, else part of PARSE */
+        STATISTICS,
+        /** Writing the FIT messages */
+        ENCODE
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+    private final long[] allocatedBytes = new long[Phase.values().length];
+    private String course;
+    private int pointsIn;
+    private int pointsReduced;
+    private int records;
+    private int coursePoints;
+    private long outputBytes;
+
+    void add(final Phase phase, final long nanos, final long allocatedBytes) {
+        this.nanos[phase.ordinal()] += nanos;
+        this.allocatedBytes[phase.ordinal()] += allocatedBytes;
+    }
+
+    public long getNanos(final Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Bytes allocated by the converting thread, -1 if the JVM can not measure it.
+     */
+    public long getAllocatedBytes(final Phase phase) {
+        return allocatedBytes[phase.ordinal()] < 0 ? -1 : allocatedBytes[phase.ordinal()];
+    }
+
+    public String getCourse() {
+        return course;
+    }
+
+    void setCourse(final String course) {
+        this.course = course;
+    }
+
+    /**
+     * Track, route and waypoints read from the GPX, without the track points dropped as duplicates.
+     */
+    public int getPointsIn() {
+        return pointsIn;
+    }
+
+    void setPointsIn(final int pointsIn) {
+        this.pointsIn = pointsIn;
+    }
+
+    /**
+     * Track, route and waypoints after the reduction.
+     */
+    public int getPointsReduced() {
+        return pointsReduced;
+    }
+
+    void setPointsReduced(final int pointsReduced) {
+        this.pointsReduced = pointsReduced;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    void setRecords(final int records) {
+        this.records = records;
+    }
+
+    public int getCoursePoints() {
+        return coursePoints;
+    }
+
+    void setCoursePoints(final int coursePoints) {
+        this.coursePoints = coursePoints;
+    }
+
+    /**
+     * Size of the FIT, 0 if it was not written to a stream, channel or file.
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    void setOutputBytes(final long outputBytes) {
+        this.outputBytes = outputBytes;
+    }
+
+    public String toJson() {
+        final StringBuilder sb = new StringBuilder("{");
+        if (course != null) {
+            sb.append("\"course\": ").append(Json.quote(course)).append(", ");
+        }
+        sb.append("\"phases\": {");
+        for (final Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format(Locale.ROOT, "\"%s\": {\"millis\": %.3f, \"allocatedBytes\": %d}",
+                    phase.name().toLowerCase(Locale.ROOT), getNanos(phase) / 1E6, getAllocatedBytes(phase)));
+        }
+        sb.append("}, \"pointsIn\": ").append(pointsIn)
+                .append(", \"pointsReduced\": ").append(pointsReduced)
+                .append(", \"records\": ").append(records)
+                .append(", \"coursePoints\": ").append(coursePoints)
+                .append(", \"outputBytes\": ").append(outputBytes)
+                .append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package ch.bubendorf.gpx2fit;
+
+/**
+ * Computes the distances of all the consecutive point pairs and the ECEF coordinates of all the points of a track
+ * at once, on the primitive arrays of a {@link TrackBuffer}.
+ * <p>
+ * {@link #get()} returns the SIMD implementation with the Vector API if the JVM has been started with
+ * {@code --add-modules jdk.incubator.vector}, else the scalar one. The scalar kernel returns exactly the values of
+ * {@link DistanceModel#distance(double, double, double, double)} and {@link ProjectedSegment#toEcef(double, double,
+ * double[], int)}. Once compiled by C2, the sine, cosine and arc sine of the vector kernel may differ from those of
+ * {@link Math} by an ulp, the distances and coordinates therefore by less than 1E-15 relative (see
+ * DistanceKernelTest), also from run to run. The conversion therefore uses the scalar kernel: its reductions and
+ * summaries must be identical in the sequential, parallel and low memory modes. The vector kernel is only compared
+ * in DistanceKernelBenchmark.
+ */
+abstract class DistanceKernel {
+
+    private static final DistanceKernel SCALAR = new Scalar();
+    private static final DistanceKernel DEFAULT = createDefault();
+
+    /**
+     * The vector kernel if the module jdk.incubator.vector is available, else the scalar one.
+     */
+    static DistanceKernel get() {
+        return DEFAULT;
+    }
+
+    static DistanceKernel scalar() {
+        return SCALAR;
+    }
+
+    private static DistanceKernel createDefault() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            // Only loaded with the module, the class does not link without it
+            return (DistanceKernel) Class.forName("ch.bubendorf.gpx2fit.VectorDistanceKernel")
+                    .getDeclaredConstructor().newInstance();
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+
+    /**
+     * Stores the distance between the points i and i - 1 in m in out[i] for all i in [from, to[, with the same
+     * arguments as {@code model.distance(lat[i], lon[i], lat[i - 1], lon[i - 1])}.
+     *
+     * @param from At least 1
+     */
+    abstract void distances(DistanceModel model, double[] lat, double[] lon, int from, int to, double[] out);
+
+    /**
+     * Stores the ECEF coordinates of the points [from, to[ in ecef, interleaved as x, y, z.
+     */
+    abstract void toEcef(double[] lat, double[] lon, int from, int to, double[] ecef);
+
+    private static final class Scalar extends DistanceKernel {
+
+        @Override
+        void distances(final DistanceModel model, final double[] lat, final double[] lon, final int from,
+                       final int to, final double[] out) {
+            for (int i = from; i < to; i++) {
+                out[i] = model.distance(lat[i], lon[i], lat[i - 1], lon[i - 1]);
+            }
+        }
+
+        @Override
+        void toEcef(final double[] lat, final double[] lon, final int from, final int to, final double[] ecef) {
+            for (int i = from; i < to; i++) {
+                ProjectedSegment.toEcef(lat[i], lon[i], ecef, 3 * i);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    }
+}
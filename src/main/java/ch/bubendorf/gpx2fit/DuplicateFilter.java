@@ -0,0 +1,51 @@
+package ch.bubendorf.gpx2fit;
+
+/**
+ * Drops the track points which end up at the same position in the FIT as the previous point, i.e. with the same
+ * latitude and longitude in semicircles, and optionally the points with the same time as the previous point. A
+ * stationary recording produces long runs of such points. They are dropped while reading, before they are stored,
+ * reduced, summarized or written. The first point of every run is kept, so the points of a stationary period
+ * collapse into the point where it started.
+ */
+final class DuplicateFilter implements GpxStreamReader.PointConsumer {
+
+    private final GpxStreamReader.PointConsumer consumer;
+    private final boolean positions;
+    private final boolean times;
+
+    private boolean first = true;
+    private int lastLatSemi;
+    private int lastLonSemi;
+    private long lastTime;
+
+    private DuplicateFilter(final Gpx2FitOptions options, final GpxStreamReader.PointConsumer consumer) {
+        this.consumer = consumer;
+        positions = options.isDedupePositions();
+        times = options.isDedupeTimes();
+    }
+
+    /**
+     * @return The consumer itself if the options do not drop any duplicates
+     */
+    static GpxStreamReader.PointConsumer wrap(final Gpx2FitOptions options,
+                                              final GpxStreamReader.PointConsumer consumer) {
+        return options.isDedupePositions() || options.isDedupeTimes() ? new DuplicateFilter(options, consumer)
+                : consumer;
+    }
+
+    @Override
+    public void add(final String name, final double lat, final double lon, final double ele, final long time) {
+        // Quantized once, as the encoder does
+        final int latSemi = WayPoint.toSemiCircles(lat);
+        final int lonSemi = WayPoint.toSemiCircles(lon);
+        if (!first && (positions && latSemi == lastLatSemi && lonSemi == lastLonSemi
+                || times && time != TrackBuffer.NO_TIME && time == lastTime)) {
+            return;
+        }
+        first = false;
+        lastLatSemi = latSemi;
+        lastLonSemi = lonSemi;
+        lastTime = time;
+        consumer.add(name, lat, lon, ele, time);
+    }
+}
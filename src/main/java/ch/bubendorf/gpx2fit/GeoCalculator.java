@@ -6,9 +6,17 @@ import org.gavaghan.geodesy.GeodeticCalculator;
 import org.gavaghan.geodesy.GlobalCoordinates;
 
 public abstract class GeoCalculator {
+    /**
+     * The GeodeticCalculator has no mutable state (all the intermediate values of Vincenty's formula are local
+     * variables) and the Ellipsoid is immutable. Both can therefore safely be shared by concurrent conversions.
+     */
     public static final GeodeticCalculator geoCalc = new GeodeticCalculator();
     public static final Ellipsoid reference = Ellipsoid.WGS84;
 
+    static final double WGS84_A = 6378137.0;
+    static final double WGS84_F = 1.0 / 298.257223563;
+    static final double WGS84_E2 = WGS84_F * (2.0 - WGS84_F);
+
     public static double dist(final WayPoint wp1, final WayPoint wp2) {
         return dist(wp1.getLatitude().doubleValue(), wp1.getLongitude().doubleValue(),
                 wp2.getLatitude().doubleValue(), wp2.getLongitude().doubleValue());
@@ -25,4 +33,35 @@ public abstract class GeoCalculator {
                 new GlobalCoordinates(lat2, lon2)
         ).getEllipsoidalDistance();
     }
+
+    /**
+     * Length of one degree of latitude in m at the given latitude (meridional radius of curvature of WGS84).
+     */
+    public static double metersPerDegreeLat(final double lat) {
+        final double sinPhi = Math.sin(Math.toRadians(lat));
+        final double w = 1.0 - WGS84_E2 * sinPhi * sinPhi;
+        return Math.toRadians(WGS84_A * (1.0 - WGS84_E2) / (w * Math.sqrt(w)));
+    }
+
+    /**
+     * Length of one degree of longitude in m at the given latitude (prime vertical radius of curvature of WGS84).
+     */
+    public static double metersPerDegreeLon(final double lat) {
+        final double phi = Math.toRadians(lat);
+        final double sinPhi = Math.sin(phi);
+        return Math.toRadians(WGS84_A / Math.sqrt(1.0 - WGS84_E2 * sinPhi * sinPhi) * Math.cos(phi));
+    }
+
+    /**
+     * Difference lon2 - lon1 in degrees, normalized to [-180, 180].
+     */
+    public static double deltaLon(final double lon1, final double lon2) {
+        double deltaLon = lon2 - lon1;
+        if (deltaLon > 180.0) {
+            deltaLon -= 360.0;
+        } else if (deltaLon < -180.0) {
+            deltaLon += 360.0;
+        }
+        return deltaLon;
+    }
 }
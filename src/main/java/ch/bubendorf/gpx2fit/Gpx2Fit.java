@@ -1,9 +1,9 @@
 package ch.bubendorf.gpx2fit;
 
 
-import ch.bubendorf.gpx2fit.fit.FitBufferEncoder;
+import ch.bubendorf.gpx2fit.fit.DirectFitEncoder;
 import ch.bubendorf.gpx2fit.fit.FitEncoder;
-import ch.bubendorf.gpx2fit.fit.FitFileEncoder;
+import ch.bubendorf.gpx2fit.fit.LapBoundsField;
 import com.garmin.fit.*;
 import io.jenetics.jpx.GPX;
 import io.jenetics.jpx.Route;
@@ -14,70 +14,309 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static com.garmin.fit.File.COURSE;
 import static com.garmin.fit.Manufacturer.GARMIN;
 import static java.lang.Double.isNaN;
-import static java.lang.Math.max;
-import static java.lang.Math.min;
 
 // Based on https://github.com/gimportexportdevs/gexporter/blob/master/app/src/main/java/org/surfsite/gexporter/Gpx2Fit.java
 public class Gpx2Fit {
 
-    private List<WayPoint> trkPoints = Collections.emptyList();
-    private List<WayPoint> rtePoints = Collections.emptyList();
-    private List<WayPoint> wayPoints = Collections.emptyList();
+    private TrackBuffer trkPoints = new TrackBuffer();
+    private TrackBuffer rtePoints = new TrackBuffer();
+    private TrackBuffer wayPoints = new TrackBuffer();
 
-    private final List<WayPoint> pointsToUse = new ArrayList<>();
+    /**
+     * Summary of the points to use: the track points, else the route points, else the waypoints.
+     */
+    private final TrackSummary summary;
+    private long[] cachedForcedTimes;
+
+    /**
+     * The GPX read again by writeFit for the track points in the low memory mode, else null.
+     */
+    private final Path trackFile;
+    private final int trackPointCount;
+
+    /**
+     * The track points as read from the GPX, before any reduction, for withTolerance and withMaxPoints. Only kept
+     * by {@link #forDerivedCourses} if the track is reduced, else null.
+     */
+    private final TrackBuffer sourceTrkPoints;
+    private ReductionIndex reductionIndex;
 
     private final String courseName;
 
     Gpx2FitOptions gpx2FitOptions;
 
+    private final ConversionStats stats;
+
     public Gpx2Fit(final String name, final InputStream in, final Gpx2FitOptions options) throws IOException {
+        this(name, in, options, null);
+    }
+
+    /**
+     * The options must not be changed afterwards.
+     *
+     * @param stats Collects the times and counts of the conversion, also of the courses derived from this one. May
+     *              be null.
+     */
+    public Gpx2Fit(final String name, final InputStream in, final Gpx2FitOptions options,
+                   final ConversionStats stats) throws IOException {
+        this(name, in, options, stats, false);
+    }
+
+    /**
+     * Like {@link #Gpx2Fit(String, InputStream, Gpx2FitOptions, ConversionStats)}, but also keeps the track points
+     * as read from the GPX if they are reduced, so {@link #withTolerance(double)} and {@link #withMaxPoints(int)}
+     * can derive further courses from them.
+     */
+    public static Gpx2Fit forDerivedCourses(final String name, final InputStream in, final Gpx2FitOptions options,
+                                            final ConversionStats stats) throws IOException {
+        return new Gpx2Fit(name, in, options, stats, true);
+    }
+
+    private Gpx2Fit(final String name, final InputStream in, final Gpx2FitOptions options,
+                    final ConversionStats stats, final boolean keepSource) throws IOException {
         courseName = name;
         gpx2FitOptions = options;
+        this.stats = stats;
+
+        trackFile = null;
+
+        final PhaseTimer parse = new PhaseTimer(stats, ConversionStats.Phase.PARSE);
+        // A track which is not reduced is summarized while reading, unless it is summarized in parallel afterwards
+        final TrackSummary trkSummary = isReduceTrack(options) || options.isParallelReduce()
+                ? null : new TrackSummary(options);
+        if (options.isPipelined()) {
+            // Parse on a reader thread while this thread adds the points and computes their distances
+            trkPoints = new TrackBuffer(trkSummary);
+            final GpxStreamReader reader = PointPipeline.read(in, options, trkPoints::add);
+            rtePoints = reader.getRtePoints();
+            wayPoints = reader.getWayPoints();
+        } else if (options.isStreamingParser()) {
+            // Read the points directly without building the GPX object graph
+            final GpxStreamReader reader = new GpxStreamReader(options, trkSummary);
+            reader.read(in);
+            trkPoints = reader.getTrkPoints();
+            rtePoints = reader.getRtePoints();
+            wayPoints = reader.getWayPoints();
+        } else {
+            trkPoints = new TrackBuffer(trkSummary);
+            readGpx(in, options);
+        }
+        final TrackBuffer readTrkPoints = trkPoints;
+        final int pointsIn = trkPoints.size() + rtePoints.size() + wayPoints.size();
+        parse.end(name, pointsIn);
+
+        final PhaseTimer reduce = new PhaseTimer(stats, ConversionStats.Phase.REDUCE);
+        if (options.isTracks() && options.getTolerance() > 0) {
+            // Reduce track points using the Douglas-Peucker algorithm
+            trkPoints = options.isParallelReduce()
+                    ? Reducer.reduceParallel(trkPoints, options.getTolerance())
+                    : Reducer.reduce(trkPoints, options.getTolerance());
+        }
 
-        // Load the GPX
-        final GPX gpx = GPX.Reader.of(GPX.Reader.Mode.LENIENT).read(in);
+        if (options.isTracks() && options.isPointBudget() && options.getMaxPoints() > 0) {
+            // Remove the least significant track points. The route and waypoints count to the budget as long as
+            // they are written (see skipExtraCP in writeFit).
+            final int coursePoints = rtePoints.size() + wayPoints.size();
+            final int maxPoints = options.getMaxPoints();
+            trkPoints = VisvalingamReducer.reduce(trkPoints,
+                    coursePoints + 2 <= maxPoints ? maxPoints - coursePoints : maxPoints);
+        }
 
-        if (options.isTracks()) {
-            trkPoints = gpx.tracks().flatMap(Track::segments)
-                    .flatMap(TrackSegment::points)
-                    .map(WayPoint::new)
-                    .collect(Collectors.toList());
+        // The unreduced points are only kept when asked for, they are as large as the whole track
+        sourceTrkPoints = keepSource || trkPoints == readTrkPoints ? readTrkPoints : null;
+        trkPoints.trimToSize();
+        rtePoints.trimToSize();
+        wayPoints.trimToSize();
+        trackPointCount = trkPoints.size();
+        final int pointsReduced = trkPoints.size() + rtePoints.size() + wayPoints.size();
+        reduce.end(name, pointsReduced);
+
+        final PhaseTimer statistics = new PhaseTimer(stats, ConversionStats.Phase.STATISTICS);
+        summary = getSummary(getPointsToUse());
+        statistics.end(name, summary.getCount());
+
+        if (stats != null) {
+            stats.setCourse(name);
+            stats.setPointsIn(pointsIn);
+            stats.setPointsReduced(pointsReduced);
+        }
+    }
 
-            if (options.getTolerance() > 0) {
-                // Reduce track points using the Douglas-Peucker algorithm
-                trkPoints = Reducer.reduce(trkPoints, options.getTolerance());
-            }
+    private Gpx2Fit(final Gpx2Fit source, final TrackBuffer trkPoints) {
+        courseName = source.courseName;
+        gpx2FitOptions = source.gpx2FitOptions;
+        stats = source.stats;
+        trackFile = null;
+        sourceTrkPoints = source.sourceTrkPoints;
+        reductionIndex = source.reductionIndex;
+        this.trkPoints = trkPoints;
+        rtePoints = source.rtePoints;
+        wayPoints = source.wayPoints;
+        trackPointCount = trkPoints.size();
+        summary = getSummary(getPointsToUse());
+    }
+
+    private Gpx2Fit(final Path file, final String name, final Gpx2FitOptions options, final ConversionStats stats)
+            throws IOException {
+        courseName = name;
+        gpx2FitOptions = options;
+        this.stats = stats;
+        trackFile = file;
+
+        final PhaseTimer parse = new PhaseTimer(stats, ConversionStats.Phase.PARSE);
+        // Only summarize the track points, they are read again by writeFit
+        final TrackSummary trkSummary = new TrackSummary(options);
+        final GpxStreamReader reader;
+        try (final InputStream in = new MappedFileInputStream(file)) {
+            reader = readTrack(in, options, (pointName, lat, lon, ele, time) -> trkSummary.add(lat, lon, ele, time));
+        }
+        trkPoints = reader.getTrkPoints();
+        rtePoints = reader.getRtePoints();
+        wayPoints = reader.getWayPoints();
+        rtePoints.trimToSize();
+        wayPoints.trimToSize();
+        sourceTrkPoints = trkPoints;
+        trackPointCount = trkSummary.getCount();
+        final int points = trackPointCount + rtePoints.size() + wayPoints.size();
+        parse.end(name, points);
+
+        final PhaseTimer statistics = new PhaseTimer(stats, ConversionStats.Phase.STATISTICS);
+        summary = trackPointCount > 0 ? trkSummary : getSummary(rtePoints.isEmpty() ? wayPoints : rtePoints);
+        statistics.end(name, summary.getCount());
+
+        if (stats != null) {
+            stats.setCourse(name);
+            stats.setPointsIn(points);
+            stats.setPointsReduced(points);
         }
+    }
 
-        if (options.isRoutes()) {
-            rtePoints = gpx.routes().flatMap(Route::points)
-                    .map(WayPoint::new)
-                    .collect(Collectors.toList());
+    /**
+     * Converts a GPX file with a low memory usage: The file is read with the streaming parser to summarize the
+     * track points and read again by writeFit to write them, only the route and waypoints are kept in memory. The
+     * track can therefore not be reduced with a tolerance or a point budget, {@link #getTrkPoints()} is empty and
+     * there are no derived courses. The file must not change until it has been written.
+     *
+     * @param stats Collects the times and counts of the conversion, may be null
+     */
+    public static Gpx2Fit lowMemory(final Path file, final String name, final Gpx2FitOptions options,
+                                    final ConversionStats stats) throws IOException {
+        if (isReduceTrack(options)) {
+            throw new IllegalArgumentException("The track can not be reduced in the low memory mode");
         }
+        return new Gpx2Fit(file, name, options, stats);
+    }
 
-        if (options.isWaypoints()) {
-            wayPoints = gpx.wayPoints()
-                    .map(WayPoint::new)
-                    .collect(Collectors.toList());
+    /**
+     * Reads the GPX with the streaming parser, the track points are passed to the consumer. In the pipelined mode
+     * on this thread while the GPX is parsed on a reader thread.
+     */
+    private static GpxStreamReader readTrack(final InputStream in, final Gpx2FitOptions options,
+                                             final GpxStreamReader.PointConsumer trkConsumer) throws IOException {
+        if (options.isPipelined()) {
+            return PointPipeline.read(in, options, trkConsumer);
         }
+        final GpxStreamReader reader = new GpxStreamReader(options, trkConsumer);
+        reader.read(in);
+        return reader;
+    }
 
+    private static boolean isReduceTrack(final Gpx2FitOptions options) {
+        return options.isTracks()
+                && (options.getTolerance() > 0 || options.isPointBudget() && options.getMaxPoints() > 0);
+    }
+
+    private TrackBuffer getPointsToUse() {
         // Per default use the TrackPoints for distance, area, etc.
-        pointsToUse.addAll(trkPoints);
-        if (pointsToUse.isEmpty()) {
+        if (!trkPoints.isEmpty()) {
+            return trkPoints;
+        } else if (!rtePoints.isEmpty()) {
             // If there are no TrackPoints then use the RoutePoints
-            pointsToUse.addAll(rtePoints);
-        }
-        if (pointsToUse.isEmpty()) {
+            return rtePoints;
+        } else {
             // Else use the Waypoints
-            pointsToUse.addAll(wayPoints);
+            return wayPoints;
+        }
+    }
+
+    private TrackSummary getSummary(final TrackBuffer pointsToUse) {
+        if (pointsToUse.getSummary() != null) {
+            return pointsToUse.getSummary();
+        }
+        // The reduced track, the route or the waypoints
+        return gpx2FitOptions.isParallelReduce()
+                ? TrackSummary.ofParallel(pointsToUse, gpx2FitOptions)
+                : TrackSummary.of(pointsToUse, gpx2FitOptions);
+    }
+
+    /**
+     * The Douglas-Peucker significance of the track points as read from the GPX. Built on the first call.
+     *
+     * @throws UnsupportedOperationException In the low memory mode or if the track has been reduced and this
+     *                                       course has not been created by {@link #forDerivedCourses}
+     */
+    public ReductionIndex getReductionIndex() {
+        if (trackFile != null) {
+            throw new UnsupportedOperationException("The track points are not kept in the low memory mode");
+        }
+        if (sourceTrkPoints == null) {
+            throw new UnsupportedOperationException("The track points as read from the GPX are only kept by "
+                    + "forDerivedCourses");
+        }
+        if (reductionIndex == null) {
+            reductionIndex = new ReductionIndex(sourceTrkPoints);
+        }
+        return reductionIndex;
+    }
+
+    /**
+     * The same course with the track points as read from the GPX reduced with another tolerance. The GPX is not
+     * read again and the Douglas-Peucker algorithm runs only once for all the derived courses. The derived
+     * courses share the route and waypoints with this one, so they must not be written concurrently.
+     */
+    public Gpx2Fit withTolerance(final double tolerance) {
+        return new Gpx2Fit(this, getReductionIndex().reduce(tolerance));
+    }
+
+    /**
+     * The same course with the maxPoints most significant track points as read from the GPX.
+     *
+     * @see ReductionIndex#reduceTo(int)
+     */
+    public Gpx2Fit withMaxPoints(final int maxPoints) {
+        return new Gpx2Fit(this, getReductionIndex().reduceTo(maxPoints));
+    }
+
+    private void readGpx(final InputStream in, final Gpx2FitOptions options) throws IOException {
+        // Load the GPX
+        final GPX gpx = GPX.Reader.of(GPX.Reader.Mode.LENIENT).read(in);
+
+        if (options.isTracks()) {
+            final GpxStreamReader.PointConsumer trkConsumer = DuplicateFilter.wrap(options, trkPoints::add);
+            gpx.tracks().flatMap(Track::segments)
+                    .flatMap(TrackSegment::points)
+                    .forEach(trkConsumer::add);
+        }
+
+        if (options.isRoutes()) {
+            gpx.routes().flatMap(Route::points)
+                    .forEach(rtePoints::add);
+        }
+
+        if (options.isWaypoints()) {
+            gpx.wayPoints()
+                    .forEach(wayPoints::add);
         }
     }
 
@@ -85,15 +324,15 @@ public class Gpx2Fit {
         return courseName;
     }
 
-    public List<WayPoint> getTrkPoints() {
+    public TrackBuffer getTrkPoints() {
         return trkPoints;
     }
 
-    public List<WayPoint> getRtePoints() {
+    public TrackBuffer getRtePoints() {
         return rtePoints;
     }
 
-    public List<WayPoint> getWayPoints() {
+    public TrackBuffer getWayPoints() {
         return wayPoints;
     }
 
@@ -105,20 +344,54 @@ public class Gpx2Fit {
      * Journal of Applied Physiology 93, 1039-1046, http://jap.physiology.org/content/93/3/1039.full
      */
     public double getWalkingGradeFactor(final double g) {
-        return 1.0 + (g * (19.5 + g * (46.3 + g * (-43.3 + g * (-30.4 + g * 155.4))))) / 3.6;
+        return TrackSummary.walkingGradeFactor(g);
     }
 
     /**
      * Convert the tracks, routes and waypoints into a FIT and write it to the OutputStream.
+     * The messages are encoded twice, the first time to get the size for the header.
      *
      * @param outputStream OutputStream to write the result to
      * @throws IOException Something went wrong
      */
     public void writeFit(final OutputStream outputStream, final Date date) throws IOException {
-        final FitBufferEncoder encoder = new FitBufferEncoder();
-        writeFit(encoder, date);
-        final byte[] bytes = encoder.close();
-        outputStream.write(bytes);
+        writeFit(Channels.newChannel(outputStream), date);
+        outputStream.flush();
+    }
+
+    /**
+     * Convert the tracks, routes and waypoints into a FIT and write it to the channel while encoding. The header
+     * of a SeekableByteChannel is written again at the end. For any other channel, the messages are encoded twice,
+     * the first time to get the size for the header.
+     *
+     * @param channel Channel to write the result to
+     * @throws IOException Something went wrong
+     */
+    public void writeFit(final WritableByteChannel channel, final Date date) throws IOException {
+        // Both passes must write the same creation time
+        final Date created = date == null ? new Date() : date;
+        try {
+            final DirectFitEncoder encoder;
+            if (channel instanceof SeekableByteChannel) {
+                encoder = new DirectFitEncoder((SeekableByteChannel) channel);
+            } else {
+                final DirectFitEncoder sizeEncoder = DirectFitEncoder.sizeOnly();
+                writeFit(sizeEncoder, created);
+                sizeEncoder.close();
+                encoder = new DirectFitEncoder(channel, sizeEncoder.getDataSize());
+            }
+            writeFit(encoder, created);
+            final long dataSize = encoder.getDataSize();
+            encoder.close();
+            if (stats != null) {
+                stats.setOutputBytes(DirectFitEncoder.getFileSize(dataSize));
+            }
+        } catch (final FitRuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
     }
 
     /**
@@ -127,28 +400,23 @@ public class Gpx2Fit {
      * @param outfile File to write the result to.
      */
     public void writeFit(final File outfile, final Date date) {
-        final FitFileEncoder encoder = new FitFileEncoder(outfile);
-        writeFit(encoder, date);
-        encoder.close();
+        try (final FileChannel channel = FileChannel.open(outfile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFit(channel, date);
+        } catch (final IOException e) {
+            throw new FitRuntimeException(e);
+        }
     }
 
     protected void writeFit(final FitEncoder encoder, final Date date) {
-        if (pointsToUse.size() == 0) {
+        if (summary.getCount() == 0) {
             // Nothing to do
             return;
         }
 
-        WayPoint lastWayPoint = null;
-        double minEle = Double.NaN;
-        double maxEle = Double.NaN;
-        double totalAsc = Double.NaN;
-        double totalDesc = Double.NaN;
-        double totalDist = 0;
-        double lastCoursePointDist = 0;
-        double lastDist = 0;
-        final double speed = gpx2FitOptions.getSpeed();
-        double minLat = 1000.0, minLong = 1000.0;
-        double maxLat = -1000.0, maxLong = -1000.0;
+        final PhaseTimer encode = new PhaseTimer(stats, ConversionStats.Phase.ENCODE);
+        int coursePoints = 0;
+        final double totalDist = summary.getTotalDistance();
         boolean skipExtraCP = false;
 
         //Generate FileIdMessage
@@ -160,7 +428,7 @@ public class Gpx2Fit {
         fileIdMsg.setSerialNumber(26031968L); // Was 12345L
         fileIdMsg.setTimeCreated(new DateTime(date == null ? new Date() : date));
 
-        fileIdMsg.setNumber(pointsToUse.hashCode());
+        fileIdMsg.setNumber(summary.getCourseNumber());
 //        fileIdMsg.setFaveroProduct();
 //        fileIdMsg.setGarminProduct();
         fileIdMsg.setProductName("GarminExportMenu@Bubendorf");
@@ -174,126 +442,48 @@ public class Gpx2Fit {
         courseMesg.setSport(Sport.GENERIC);
         encoder.write(courseMesg);
 
-        final WayPoint startWayPoint = pointsToUse.get(0);
-        final Date startDate = startWayPoint.getTime();
-
-        final WayPoint endWayPoint = pointsToUse.get(pointsToUse.size() - 1);
+        final long startDate = summary.getStartTime();
 
         boolean forceSpeed = gpx2FitOptions.isForceSpeed();
-        if (startWayPoint.getTime().getTime() == endWayPoint.getTime().getTime()) {
-            if (!isNaN(speed))
+        if (startDate == summary.getEndTime()) {
+            if (!isNaN(gpx2FitOptions.getSpeed()))
                 forceSpeed = true;
         }
-        Date endDate;
-
-        if (forceSpeed) {
-            endDate = startDate;
-        } else {
-            endDate = endWayPoint.getTime();
-        }
-
-        // Determine speed, min- and max values, etc. from all waypoints
-        for (final WayPoint wpt : pointsToUse) {
-            final double ele = wpt.getEle();
-            if (!isNaN(ele)) {
-                if (minEle > ele || isNaN(minEle))
-                    minEle = ele;
-                if (maxEle < ele || isNaN(maxEle))
-                    maxEle = ele;
-            }
-
-            minLat = min(minLat, wpt.getLat());
-            minLong = min(minLong, wpt.getLon());
-            maxLat = max(maxLat, wpt.getLat());
-            maxLong = max(maxLong, wpt.getLon());
-
-            double gradeSpeed = speed;
-            if (lastWayPoint == null) {
-                wpt.setTotalDist(0);
-            } else {
-                final double dist = wpt.distance(lastWayPoint);
-
-                if (gpx2FitOptions.isUse3dDistance()) {
-                    totalDist += wpt.distance3D(lastWayPoint);
-                } else {
-                    totalDist += dist;
-                }
-                wpt.setTotalDist(totalDist);
-
-                if ((!isNaN(ele)) && (!isNaN(lastWayPoint.getEle()))) {
-                    final double deltaEle = ele - lastWayPoint.getEle();
-                    if (deltaEle > 0.0) {
-                        if (isNaN(totalAsc))
-                            totalAsc = .0;
-                        totalAsc += deltaEle;
-                    } else {
-                        if (isNaN(totalDesc))
-                            totalDesc = .0;
-                        totalDesc += Math.abs(deltaEle);
-                    }
-
-                    if (gpx2FitOptions.isWalkingGrade()) {
-                        final double grade = deltaEle / dist;
-                        gradeSpeed = getWalkingGradeFactor(grade) * speed;
-                    }
-                }
-
-                if (forceSpeed) {
-                    endDate = new Date(endDate.getTime() + (long) (dist / gradeSpeed * 1000.0));
-                    wpt.setTime(endDate);
-                }
-            }
-            lastWayPoint = wpt;
-        }
+        final long endDate = forceSpeed ? summary.getForcedTime() : summary.getEndTime();
 
         // Every FIT COURSE file MUST contain a Lap message
         final LapMesg lapMesg = new LapMesg();
         lapMesg.setLocalNum(0);
-        lapMesg.setTimestamp(new DateTime(startDate));
-        lapMesg.setStartTime(new DateTime(startDate));
-        lapMesg.setStartPositionLat(startWayPoint.getLatSemi());
-        lapMesg.setStartPositionLong(startWayPoint.getLonSemi());
-        lapMesg.setEndPositionLat(endWayPoint.getLatSemi());
-        lapMesg.setEndPositionLong(endWayPoint.getLonSemi());
-
-        final long duration = endDate.getTime() - startDate.getTime();
+        lapMesg.setTimestamp(new DateTime(FitEncoder.toFitTime(startDate)));
+        lapMesg.setStartTime(new DateTime(FitEncoder.toFitTime(startDate)));
+        lapMesg.setStartPositionLat(WayPoint.toSemiCircles(summary.getStartLat()));
+        lapMesg.setStartPositionLong(WayPoint.toSemiCircles(summary.getStartLon()));
+        lapMesg.setEndPositionLat(WayPoint.toSemiCircles(summary.getEndLat()));
+        lapMesg.setEndPositionLong(WayPoint.toSemiCircles(summary.getEndLon()));
+
+        final long duration = endDate - startDate;
         lapMesg.setTotalTimerTime((float) (duration / 1000.0));
         lapMesg.setTotalDistance((float) totalDist);
         lapMesg.setAvgSpeed((float) (totalDist * 1000.0 / (double) duration));
         lapMesg.setTotalElapsedTime((float) (duration / 1000.0));
 
-        if (!isNaN(totalAsc)) {
-            totalAsc += 0.5;
-            lapMesg.setTotalAscent((int) totalAsc);
+        if (!isNaN(summary.getTotalAscent())) {
+            lapMesg.setTotalAscent((int) (summary.getTotalAscent() + 0.5));
         }
-        if (!isNaN(totalDesc)) {
-            totalDesc += 0.5;
-            lapMesg.setTotalDescent((int) totalDesc);
+        if (!isNaN(summary.getTotalDescent())) {
+            lapMesg.setTotalDescent((int) (summary.getTotalDescent() + 0.5));
         }
-        if (!isNaN(maxEle)) {
-            lapMesg.setMaxAltitude((float) maxEle);
+        if (!isNaN(summary.getMaxEle())) {
+            lapMesg.setMaxAltitude((float) summary.getMaxEle());
         }
-        if (!isNaN(minEle)) {
-            lapMesg.setMinAltitude((float) minEle);
+        if (!isNaN(summary.getMinEle())) {
+            lapMesg.setMinAltitude((float) summary.getMinEle());
         }
 
         // Add the bounding box of the course in the undocumented fields
-        try {
-            final Constructor<Field> c = Field.class.getDeclaredConstructor(String.class, int.class, int.class,
-                    double.class, double.class, String.class,
-                    boolean.class, Profile.Type.class);
-            c.setAccessible(true);
-            lapMesg.addField(c.newInstance("bound_max_position_lat", 27, 133, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32));
-            lapMesg.addField(c.newInstance("bound_max_position_long", 28, 133, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32));
-            lapMesg.addField(c.newInstance("bound_min_position_lat", 29, 133, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32));
-            lapMesg.addField(c.newInstance("bound_min_position_long", 30, 133, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32));
-            lapMesg.setFieldValue(27, 0, WayPoint.toSemiCircles(maxLat), '\uffff');
-            lapMesg.setFieldValue(28, 0, WayPoint.toSemiCircles(maxLong), '\uffff');
-            lapMesg.setFieldValue(29, 0, WayPoint.toSemiCircles(minLat), '\uffff');
-            lapMesg.setFieldValue(30, 0, WayPoint.toSemiCircles(minLong), '\uffff');
-        } catch (final NoSuchMethodException | InvocationTargetException | InstantiationException | IllegalAccessException e) {
-            // Empty
-        }
+        LapBoundsField.addTo(lapMesg, WayPoint.toSemiCircles(summary.getMaxLat()),
+                WayPoint.toSemiCircles(summary.getMaxLon()), WayPoint.toSemiCircles(summary.getMinLat()),
+                WayPoint.toSemiCircles(summary.getMinLon()));
 
         encoder.write(lapMesg);
 
@@ -303,8 +493,11 @@ public class Gpx2Fit {
 
         double pt_min_dist = 0;
         if (gpx2FitOptions.getMaxPoints() != 0) {
-            pt_min_dist = totalDist / gpx2FitOptions.getMaxPoints();
-            if ((trkPoints.size() + rtePoints.size() + wayPoints.size()) > gpx2FitOptions.getMaxPoints()) {
+            if (!gpx2FitOptions.isPointBudget()) {
+                // Else the track has already been reduced to the budget
+                pt_min_dist = totalDist / gpx2FitOptions.getMaxPoints();
+            }
+            if ((trackPointCount + rtePoints.size() + wayPoints.size()) > gpx2FitOptions.getMaxPoints()) {
                 skipExtraCP = true;
             }
         }
@@ -314,18 +507,18 @@ public class Gpx2Fit {
 
         // Encode the wayPoints from the GPX
         if (!skipExtraCP && !wayPoints.isEmpty()) {
-            for (final WayPoint wpt : wayPoints) {
-                final CoursePointMesg cp = getCoursePointMsg(wpt);
-                encoder.write(cp);
+            for (int i = 0; i < wayPoints.size(); i++) {
+                writeCoursePoint(encoder, wayPoints, i);
             }
+            coursePoints += wayPoints.size();
         }
 
         // Encode the routePoints from the GPX
         if (!skipExtraCP && !rtePoints.isEmpty()) {
-            for (final WayPoint wpt : rtePoints) {
-                final CoursePointMesg cp = getCoursePointMsg(wpt);
-                encoder.write(cp);
+            for (int i = 0; i < rtePoints.size(); i++) {
+                writeCoursePoint(encoder, rtePoints, i);
             }
+            coursePoints += rtePoints.size();
         }
 
         final EventMesg eventMesg = new EventMesg();
@@ -334,127 +527,182 @@ public class Gpx2Fit {
         eventMesg.setEvent(Event.TIMER);
         eventMesg.setEventType(EventType.START);
         eventMesg.setEventGroup((short) 0);
-        eventMesg.setTimestamp(new DateTime(startDate));
+        eventMesg.setTimestamp(new DateTime(FitEncoder.toFitTime(startDate)));
         encoder.write(eventMesg);
 
-        DateTime timestamp = new DateTime(new Date(DateTime.OFFSET));
-        long lastTimestamp = startDate.getTime();
+        if (gpx2FitOptions.isInjectCoursePoints()) {
+            final TrackPointWriter injector = new TrackPointWriter(encoder, true, trackPointCount, duration,
+                    cp_min_dist, startDate);
+            forEachTrackPoint(forceSpeed, injector);
+            coursePoints += injector.written;
+        }
 
-        long fakeTime = 0;
-        lastWayPoint = null;
+        // Encode the trackPoints from the GPX
+        final TrackPointWriter recordWriter = new TrackPointWriter(encoder, false, trackPointCount, duration,
+                pt_min_dist, startDate);
+        forEachTrackPoint(forceSpeed, recordWriter);
 
-        if (gpx2FitOptions.isInjectCoursePoints()) {
-            for (final WayPoint wpt : trkPoints) {
-                final CoursePointMesg cp = new CoursePointMesg();
-                cp.setLocalNum(0);
+        final EventMesg eventMsg2 = new EventMesg();
+        eventMsg2.setLocalNum(0);
 
-                fakeTime += 1;
-                if (duration != 0) {
-                    timestamp = new DateTime(wpt.getTime());
-                } else {
-                    timestamp = new DateTime(new Date(DateTime.OFFSET + fakeTime * 1000));
-                }
+        eventMsg2.setEvent(Event.TIMER);
+        eventMsg2.setEventType(EventType.STOP_DISABLE_ALL);
+        eventMsg2.setEventGroup((short) 0);
+        //timestamp.add(2);
+        eventMsg2.setTimestamp(new DateTime(FitEncoder.toFitTime(recordWriter.timestamp)));
 
-                final double dist = wpt.getTotalDist();
+        encoder.write(eventMsg2);
 
-                if (lastWayPoint == null) {
-                    cp.setPositionLat(wpt.getLatSemi());
-                    cp.setPositionLong(wpt.getLonSemi());
-                    cp.setName("Start");
-                    cp.setType(CoursePoint.GENERIC);
+        encode.end(courseName, recordWriter.written + coursePoints);
+        if (stats != null) {
+            stats.setRecords(recordWriter.written);
+            stats.setCoursePoints(coursePoints);
+        }
+    }
 
-                    cp.setDistance((float) dist);
-                    cp.setTimestamp(timestamp);
-                    encoder.write(cp);
-                }
+    /**
+     * Receives the track points in their order.
+     */
+    @FunctionalInterface
+    private interface TrackPointConsumer {
+        /**
+         * @param time      Time in ms since the Java epoch, at the forced speed if enabled
+         * @param totalDist Distance from the first point in m
+         */
+        void accept(double lat, double lon, double ele, long time, double totalDist);
+    }
 
-                if (wpt.equals(endWayPoint)) {
-                    cp.setPositionLat(wpt.getLatSemi());
-                    cp.setPositionLong(wpt.getLonSemi());
-                    cp.setName("End");
-                    cp.setType(CoursePoint.GENERIC);
-                    cp.setDistance((float) dist);
-                    cp.setTimestamp(timestamp);
-                    encoder.write(cp);
-                } else if ((dist - lastCoursePointDist) > cp_min_dist) {
-                    cp.setName("");
-                    cp.setType(CoursePoint.GENERIC);
-                    cp.setPositionLat(wpt.getLatSemi());
-                    cp.setPositionLong(wpt.getLonSemi());
-                    cp.setDistance((float) dist);
-                    cp.setTimestamp(timestamp);
-                    encoder.write(cp);
-                    lastCoursePointDist = dist;
-                }
-                lastWayPoint = wpt;
+    /**
+     * Passes the track points to the consumer, in the low memory mode by reading the GPX again.
+     */
+    private void forEachTrackPoint(final boolean forceSpeed, final TrackPointConsumer consumer) {
+        if (trackFile == null) {
+            // The points themselves are not modified, so the result does not change when writeFit is called again
+            final long[] forcedTimes = forceSpeed ? getForcedTimes() : null;
+            for (int i = 0; i < trkPoints.size(); i++) {
+                consumer.accept(trkPoints.getLat(i), trkPoints.getLon(i), trkPoints.getEle(i),
+                        forcedTimes != null ? forcedTimes[i] : trkPoints.getTime(i), trkPoints.getTotalDist(i));
             }
+            return;
+        }
+        if (trackPointCount == 0) {
+            return;
+        }
 
-            fakeTime = 0;
-            lastWayPoint = null;
+        final Gpx2FitOptions trackOnly = new Gpx2FitOptions(gpx2FitOptions);
+        trackOnly.setRoutes(false);
+        trackOnly.setWaypoints(false);
+        // The same sums as while reading the points the first time
+        final TrackSummary running = new TrackSummary(gpx2FitOptions);
+        try (final InputStream in = new MappedFileInputStream(trackFile)) {
+            readTrack(in, trackOnly, (name, lat, lon, ele, time) -> {
+                final double totalDist = running.add(lat, lon, ele, time);
+                consumer.accept(lat, lon, ele, forceSpeed ? running.getForcedTime() : time, totalDist);
+            });
+        } catch (final IOException e) {
+            throw new FitRuntimeException(e);
+        }
+        if (running.getCount() != trackPointCount) {
+            throw new FitRuntimeException(trackFile + " has been changed while converting");
         }
+    }
 
-        // Encode the trackPoints from the GPX
-        for (final WayPoint wpt : trkPoints) {
-            fakeTime += 1;
+    /**
+     * The times of the track points at the speed of the options. Computed on the first call.
+     */
+    private long[] getForcedTimes() {
+        if (cachedForcedTimes == null) {
+            final TrackSummary running = new TrackSummary(gpx2FitOptions);
+            final long[] times = new long[trkPoints.size()];
+            for (int i = 0; i < times.length; i++) {
+                running.add(trkPoints.getLat(i), trkPoints.getLon(i), trkPoints.getEle(i), trkPoints.getTime(i));
+                times[i] = running.getForcedTime();
+            }
+            cachedForcedTimes = times;
+        }
+        return cachedForcedTimes;
+    }
+
+    /**
+     * Writes the records or the injected course points of the track points.
+     */
+    private static final class TrackPointWriter implements TrackPointConsumer {
+
+        private final FitEncoder encoder;
+        private final boolean coursePoints;
+        private final int count;
+        private final long duration;
+        private final double minDist;
+
+        private int index;
+        private long timestamp = DateTime.OFFSET;
+        private long lastTimestamp;
+        private double lastDist;
+        private int written;
+
+        /**
+         * @param coursePoints Write course points at the start, at the end and every minDist m instead of the
+         *                     records
+         * @param count        Number of track points
+         * @param duration     Duration of the course, without it every point is a second later than the last one
+         * @param minDist      Min distance of the points to write
+         */
+        TrackPointWriter(final FitEncoder encoder, final boolean coursePoints, final int count, final long duration,
+                         final double minDist, final long startDate) {
+            this.encoder = encoder;
+            this.coursePoints = coursePoints;
+            this.count = count;
+            this.duration = duration;
+            this.minDist = minDist;
+            lastTimestamp = startDate;
+        }
 
+        @Override
+        public void accept(final double lat, final double lon, final double ele, final long time,
+                           final double dist) {
+            index++;
             if (duration != 0) {
-                timestamp = new DateTime(wpt.getTime());
+                timestamp = time;
             } else {
-                timestamp = new DateTime(new Date(DateTime.OFFSET + fakeTime * 1000));
+                timestamp = DateTime.OFFSET + index * 1000L;
             }
 
-            final double dist = wpt.getTotalDist();
-
-            if ((lastWayPoint == null) || (dist - lastDist) > pt_min_dist) {
-                final RecordMesg r = new RecordMesg();
-                r.setLocalNum(0);
-
-                r.setPositionLat(wpt.getLatSemi());
-                r.setPositionLong(wpt.getLonSemi());
-                r.setDistance((float) dist);
-                r.setTimestamp(timestamp);
-
-                if (!isNaN(wpt.getEle())) {
-                    r.setAltitude((float) wpt.getEle());
+            if (coursePoints) {
+                final int latSemi = WayPoint.toSemiCircles(lat);
+                final int lonSemi = WayPoint.toSemiCircles(lon);
+                if (index == 1) {
+                    encoder.writeCoursePoint(latSemi, lonSemi, "Start", (float) dist, timestamp);
+                    written++;
                 }
 
-                final long l = timestamp.getDate().getTime();
-                if (lastTimestamp != l) {
-                    final double gSpeed = (dist - lastDist) / (l - lastTimestamp) * 1000.0;
-                    r.setSpeed((float) gSpeed);
+                if (index == count) {
+                    encoder.writeCoursePoint(latSemi, lonSemi, "End", (float) dist, timestamp);
+                    written++;
+                } else if ((dist - lastDist) > minDist) {
+                    encoder.writeCoursePoint(latSemi, lonSemi, "", (float) dist, timestamp);
+                    written++;
+                    lastDist = dist;
+                }
+            } else if ((index == 1) || (dist - lastDist) > minDist) {
+                final float gSpeed;
+                if (lastTimestamp != timestamp) {
+                    gSpeed = (float) ((dist - lastDist) / (timestamp - lastTimestamp) * 1000.0);
                 } else {
-                    r.setSpeed((float) 0.0);
+                    gSpeed = 0.0f;
                 }
 
-                encoder.write(r);
+                encoder.writeRecord(WayPoint.toSemiCircles(lat), WayPoint.toSemiCircles(lon), (float) dist,
+                        timestamp, (float) ele, gSpeed);
+                written++;
                 lastDist = dist;
-                lastTimestamp = l;
+                lastTimestamp = timestamp;
             }
-
-            lastWayPoint = wpt;
         }
-
-        final EventMesg eventMsg2 = new EventMesg();
-        eventMsg2.setLocalNum(0);
-
-        eventMsg2.setEvent(Event.TIMER);
-        eventMsg2.setEventType(EventType.STOP_DISABLE_ALL);
-        eventMsg2.setEventGroup((short) 0);
-        //timestamp.add(2);
-        eventMsg2.setTimestamp(timestamp);
-
-        encoder.write(eventMsg2);
     }
 
-    private CoursePointMesg getCoursePointMsg(final WayPoint wpt) {
-        final CoursePointMesg cp = new CoursePointMesg();
-        cp.setLocalNum(0);
-        cp.setPositionLat(wpt.getLatSemi());
-        cp.setPositionLong(wpt.getLonSemi());
-        final String name = wpt.getName();
-        cp.setName(getNonNullMax(name, 254));
-        cp.setType(CoursePoint.GENERIC);
-        return cp;
+    private static void writeCoursePoint(final FitEncoder encoder, final TrackBuffer points, final int index) {
+        encoder.writeCoursePoint(points.getLatSemi(index), points.getLonSemi(index),
+                getNonNullMax(points.getName(index), 254));
     }
 
     private static String getNonNullMax(final String input, final int maxLength) {
@@ -9,7 +9,14 @@ public class Gpx2FitOptions {
     private double minRoutePointDistance;
     private double minCoursePointDistance;
     private int maxPoints;
+    private boolean pointBudget;
     private double tolerance;
+    private boolean streamingParser;
+    private boolean parallelReduce;
+    private boolean pipelined;
+    private boolean dedupePositions;
+    private boolean dedupeTimes;
+    private DistanceModel distanceModel;
 
     private boolean tracks = true;
     private boolean routes = true;
@@ -24,7 +31,36 @@ public class Gpx2FitOptions {
         minRoutePointDistance = 1.0;
         minCoursePointDistance = 1000.0;
         maxPoints = 1000;
+        pointBudget = false;
         tolerance = 0;
+        streamingParser = false;
+        parallelReduce = false;
+        pipelined = false;
+        dedupePositions = false;
+        dedupeTimes = false;
+        distanceModel = DistanceModel.VINCENTY;
+    }
+
+    public Gpx2FitOptions(final Gpx2FitOptions other) {
+        speed = other.speed;
+        use3dDistance = other.use3dDistance;
+        walkingGrade = other.walkingGrade;
+        forceSpeed = other.forceSpeed;
+        injectCoursePoints = other.injectCoursePoints;
+        minRoutePointDistance = other.minRoutePointDistance;
+        minCoursePointDistance = other.minCoursePointDistance;
+        maxPoints = other.maxPoints;
+        pointBudget = other.pointBudget;
+        tolerance = other.tolerance;
+        streamingParser = other.streamingParser;
+        parallelReduce = other.parallelReduce;
+        pipelined = other.pipelined;
+        dedupePositions = other.dedupePositions;
+        dedupeTimes = other.dedupeTimes;
+        distanceModel = other.distanceModel;
+        tracks = other.tracks;
+        routes = other.routes;
+        waypoints = other.waypoints;
     }
 
     public double getSpeed() {
@@ -91,6 +127,18 @@ public class Gpx2FitOptions {
         this.maxPoints = maxPoints;
     }
 
+    /**
+     * true: Reduce the track points to maxPoints with the Visvalingam-Whyatt algorithm instead of skipping points
+     * by their distance.
+     */
+    public boolean isPointBudget() {
+        return pointBudget;
+    }
+
+    public void setPointBudget(final boolean pointBudget) {
+        this.pointBudget = pointBudget;
+    }
+
     public boolean isTracks() {
         return tracks;
     }
@@ -122,4 +170,62 @@ public class Gpx2FitOptions {
     public double getTolerance() {
         return tolerance;
     }
+
+    public boolean isStreamingParser() {
+        return streamingParser;
+    }
+
+    public void setStreamingParser(final boolean streamingParser) {
+        this.streamingParser = streamingParser;
+    }
+
+    public boolean isParallelReduce() {
+        return parallelReduce;
+    }
+
+    public void setParallelReduce(final boolean parallelReduce) {
+        this.parallelReduce = parallelReduce;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Parse the GPX with the streaming parser on a separate thread while the points are processed. The result is
+     * the same as without.
+     */
+    public void setPipelined(final boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public boolean isDedupePositions() {
+        return dedupePositions;
+    }
+
+    /**
+     * Drop the track points with the same position in semicircles as the previous one while reading.
+     */
+    public void setDedupePositions(final boolean dedupePositions) {
+        this.dedupePositions = dedupePositions;
+    }
+
+    public boolean isDedupeTimes() {
+        return dedupeTimes;
+    }
+
+    /**
+     * Drop the track points with the same time as the previous one while reading. Points without a time are kept.
+     */
+    public void setDedupeTimes(final boolean dedupeTimes) {
+        this.dedupeTimes = dedupeTimes;
+    }
+
+    public DistanceModel getDistanceModel() {
+        return distanceModel;
+    }
+
+    public void setDistanceModel(final DistanceModel distanceModel) {
+        this.distanceModel = distanceModel;
+    }
 }
@@ -0,0 +1,341 @@
+package ch.bubendorf.gpx2fit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.OffsetDateTime;
+import java.time.Year;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * Reads the track points, route points and waypoints of a GPX in a single streaming pass (StAX) directly into
+ * {@link TrackBuffer}s. In contrast to the jpx reader no object graph of the whole GPX is built.
+ * <p>
+ * Only the elements used for the conversion are read: the lat/lon attributes and the ele, time and name children
+ * of trkpt, rtept and wpt. Everything else (metadata, extensions, ...) is skipped. Like the LENIENT mode of jpx,
+ * a point with an invalid position is dropped and an invalid elevation or time is ignored.
+ */
+public class GpxStreamReader {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    /**
+     * Result of parseSimpleTime for a text which is not in the simple form (out of the range of a 4 digit year).
+     */
+    private static final long NOT_SIMPLE = Long.MIN_VALUE;
+
+    /**
+     * Days from 0000-03-01 to 1970-01-01.
+     */
+    private static final long DAYS_0000_03_01_TO_1970 = 719468;
+
+    private final Gpx2FitOptions options;
+
+    private final TrackBuffer trkPoints;
+    private final TrackBuffer rtePoints = new TrackBuffer();
+    private final TrackBuffer wayPoints = new TrackBuffer();
+
+    private final PointConsumer trkConsumer;
+    private final PointConsumer rteConsumer = rtePoints::add;
+    private final PointConsumer wptConsumer = wayPoints::add;
+
+    /**
+     * Receives the points in the order of the GPX.
+     */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void add(String name, double lat, double lon, double ele, long time);
+
+        /**
+         * Adds a point read by jpx.
+         */
+        default void add(final io.jenetics.jpx.WayPoint point) {
+            add(point.getName().orElse(null),
+                    point.getLatitude().doubleValue(),
+                    point.getLongitude().doubleValue(),
+                    point.getElevation().isPresent() ? point.getElevation().get().doubleValue() : 0,
+                    point.getTime().isPresent() ? point.getTime().get().toEpochMilli() : TrackBuffer.NO_TIME);
+        }
+    }
+
+    public GpxStreamReader(final Gpx2FitOptions options) {
+        this(options, (TrackSummary) null);
+    }
+
+    /**
+     * @param trkSummary Summary to feed with the track points while reading or null
+     */
+    public GpxStreamReader(final Gpx2FitOptions options, final TrackSummary trkSummary) {
+        this.options = options;
+        trkPoints = new TrackBuffer(trkSummary);
+        trkConsumer = DuplicateFilter.wrap(options, trkPoints::add);
+    }
+
+    /**
+     * @param trkConsumer Receives the track points instead of {@link #getTrkPoints()}
+     */
+    public GpxStreamReader(final Gpx2FitOptions options, final PointConsumer trkConsumer) {
+        this.options = options;
+        trkPoints = new TrackBuffer(0);
+        this.trkConsumer = DuplicateFilter.wrap(options, trkConsumer);
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Read the points from the GPX. Only the point types enabled in the options are collected.
+     *
+     * @param in The GPX
+     * @throws IOException The GPX is not well-formed XML or could not be read
+     */
+    public void read(final InputStream in) throws IOException {
+        try {
+            final XMLStreamReader reader;
+            synchronized (XML_INPUT_FACTORY) {
+                // The factory is not guaranteed to be thread safe
+                reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            }
+            try {
+                readPoints(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (final XMLStreamException e) {
+            final InvalidObjectException exception = new InvalidObjectException("Invalid GPX: " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    private void readPoints(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 0;
+
+        // State of the point currently being read
+        PointConsumer points = null;
+        int pointDepth = -1;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+        double ele = 0;
+        long time = TrackBuffer.NO_TIME;
+        String name = null;
+
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                final String localName = reader.getLocalName();
+                if (pointDepth < 0) {
+                    points = getPointList(localName);
+                    if (points != null) {
+                        pointDepth = depth;
+                        lat = parseDouble(reader.getAttributeValue(null, "lat"));
+                        lon = parseDouble(reader.getAttributeValue(null, "lon"));
+                        ele = 0;
+                        time = TrackBuffer.NO_TIME;
+                        name = null;
+                    }
+                } else if (depth == pointDepth + 1) {
+                    switch (localName) {
+                        case "ele":
+                            final double e = parseDouble(reader.getElementText());
+                            ele = Double.isNaN(e) ? 0 : e;
+                            depth--;
+                            break;
+                        case "time":
+                            time = parseTime(reader.getElementText());
+                            depth--;
+                            break;
+                        case "name":
+                            final String text = reader.getElementText();
+                            name = text.isEmpty() ? null : text;
+                            depth--;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == pointDepth) {
+                    if (isValidPosition(lat, lon)) {
+                        points.add(name, lat, lon, ele, time);
+                    }
+                    pointDepth = -1;
+                    points = null;
+                }
+                depth--;
+            }
+        }
+    }
+
+    private PointConsumer getPointList(final String localName) {
+        switch (localName) {
+            case "trkpt":
+                return options.isTracks() ? trkConsumer : null;
+            case "rtept":
+                return options.isRoutes() ? rteConsumer : null;
+            case "wpt":
+                return options.isWaypoints() ? wptConsumer : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isValidPosition(final double lat, final double lon) {
+        return lat >= -90.0 && lat <= 90.0 && lon >= -180.0 && lon <= 180.0;
+    }
+
+    private static double parseDouble(final String text) {
+        if (text == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(text.trim());
+        } catch (final NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return The time in ms since the Java epoch, {@link TrackBuffer#NO_TIME} if the text is not an ISO date time
+     */
+    static long parseTime(final String text) {
+        final String trimmed = text.trim();
+        final long time = parseSimpleTime(trimmed);
+        return time != NOT_SIMPLE ? time : parseIsoTime(trimmed);
+    }
+
+    /**
+     * The usual form yyyy-MM-ddTHH:mm:ss[.SSS][Z|+HH:mm] of the GPX times, parsed without allocating any objects.
+     * Returns {@link #NOT_SIMPLE} for every other text, which is then parsed by {@link #parseIsoTime(String)}. The
+     * results are the same as those of parseIsoTime.
+     */
+    private static long parseSimpleTime(final String text) {
+        final int length = text.length();
+        if (length < 19 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return NOT_SIMPLE;
+        }
+        final int year = parseDigits(text, 0, 4);
+        final int month = parseDigits(text, 5, 2);
+        final int day = parseDigits(text, 8, 2);
+        final int hour = parseDigits(text, 11, 2);
+        final int minute = parseDigits(text, 14, 2);
+        final int second = parseDigits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return NOT_SIMPLE;
+        }
+
+        int pos = 19;
+        int nanos = 0;
+        if (pos < length && text.charAt(pos) == '.') {
+            final int start = ++pos;
+            while (pos < length && pos - start < 9 && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+                nanos = 10 * nanos + text.charAt(pos++) - '0';
+            }
+            if (pos == start) {
+                return NOT_SIMPLE;
+            }
+            for (int i = pos - start; i < 9; i++) {
+                nanos *= 10;
+            }
+        }
+
+        final int offset;
+        if (pos == length) {
+            // A time without any offset is UTC
+            offset = 0;
+        } else if (pos + 1 == length && text.charAt(pos) == 'Z') {
+            offset = 0;
+        } else if (pos + 6 == length && (text.charAt(pos) == '+' || text.charAt(pos) == '-')
+                && text.charAt(pos + 3) == ':') {
+            final int offsetHours = parseDigits(text, pos + 1, 2);
+            final int offsetMinutes = parseDigits(text, pos + 4, 2);
+            if (offsetHours < 0 || offsetMinutes < 0 || offsetMinutes > 59
+                    || offsetHours * 60 + offsetMinutes > 18 * 60) {
+                return NOT_SIMPLE;
+            }
+            offset = (text.charAt(pos) == '-' ? -60 : 60) * (offsetHours * 60 + offsetMinutes);
+        } else {
+            return NOT_SIMPLE;
+        }
+
+        final long epochSecond = epochDay(year, month, day) * 86400 + hour * 3600 + minute * 60 + second - offset;
+        return epochSecond * 1000 + nanos / 1_000_000;
+    }
+
+    /**
+     * @return The value of the decimal digits, -1 if there is any other character
+     */
+    private static int parseDigits(final String text, final int from, final int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = 10 * value + c - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Same as LocalDate.of(year, month, day).toEpochDay() for a valid date with a year from 0 to 9999.
+     */
+    private static long epochDay(final int year, final int month, final int day) {
+        // Days since 0000-03-01, so the leap day is the last day of a year
+        final int y = month > 2 ? year : year - 1;
+        final int m = month > 2 ? month - 3 : month + 9;
+        final long days = 365L * y + Math.floorDiv(y, 4) - Math.floorDiv(y, 100) + Math.floorDiv(y, 400)
+                + (153 * m + 2) / 5 + day - 1;
+        return days - DAYS_0000_03_01_TO_1970;
+    }
+
+    /**
+     * Parses any ISO date time, with or without an offset.
+     */
+    static long parseIsoTime(final String text) {
+        try {
+            final TemporalAccessor temporal = DateTimeFormatter.ISO_DATE_TIME.parse(text);
+            final Instant instant;
+            if (temporal.isSupported(ChronoField.OFFSET_SECONDS)) {
+                instant = OffsetDateTime.from(temporal).toInstant();
+            } else {
+                // A time without any offset is UTC
+                instant = LocalDateTime.from(temporal).toInstant(ZoneOffset.UTC);
+            }
+            return instant.toEpochMilli();
+        } catch (final DateTimeException | ArithmeticException e) {
+            return TrackBuffer.NO_TIME;
+        }
+    }
+
+    public TrackBuffer getTrkPoints() {
+        return trkPoints;
+    }
+
+    public TrackBuffer getRtePoints() {
+        return rtePoints;
+    }
+
+    public TrackBuffer getWayPoints() {
+        return wayPoints;
+    }
+}
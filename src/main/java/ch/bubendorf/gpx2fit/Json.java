@@ -0,0 +1,250 @@
+package ch.bubendorf.gpx2fit;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the job lines of the {@link Worker}. Objects are read into a Map, arrays into a List,
+ * numbers into a BigDecimal, true/false into a Boolean and null into null.
+ */
+abstract class Json {
+
+    // The parser is recursive, deeper values would end in a StackOverflowError
+    static final int MAX_DEPTH = 64;
+
+    /**
+     * @throws IllegalArgumentException Not a JSON object or objects and arrays nested deeper than {@link #MAX_DEPTH}
+     */
+    static Map<String, Object> parseObject(final String json) {
+        final Parser parser = new Parser(json);
+        parser.skipWhitespace();
+        final Map<String, Object> object = parser.object();
+        parser.skipWhitespace();
+        if (parser.pos < json.length()) {
+            throw parser.error("End of line expected");
+        }
+        return object;
+    }
+
+    /**
+     * The string as a JSON string literal.
+     */
+    static String quote(final String s) {
+        final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static final class Parser {
+        private final String json;
+        private int pos;
+        private int depth;
+
+        private Parser(final String json) {
+            this.json = json;
+        }
+
+        private Object value() {
+            skipWhitespace();
+            if (pos >= json.length()) {
+                throw error("Value expected");
+            }
+            final char c = json.charAt(pos);
+            switch (c) {
+                case '{':
+                case '[': {
+                    if (++depth > MAX_DEPTH) {
+                        throw error("Nested deeper than " + MAX_DEPTH);
+                    }
+                    final Object nested = c == '{' ? object() : array();
+                    depth--;
+                    return nested;
+                }
+                case '"':
+                    return string();
+                case 't':
+                    literal("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    literal("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    literal("null");
+                    return null;
+                default:
+                    return number();
+            }
+        }
+
+        private Map<String, Object> object() {
+            expect('{');
+            final Map<String, Object> object = new LinkedHashMap<>();
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                final String key = string();
+                skipWhitespace();
+                expect(':');
+                object.put(key, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            expect('[');
+            final List<Object> array = new ArrayList<>();
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            final StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= json.length()) {
+                    throw error("Unterminated string");
+                }
+                final char c = json.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= json.length()) {
+                    throw error("Unterminated string");
+                }
+                final char escaped = json.charAt(pos++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(escaped);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        } catch (final NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+            }
+        }
+
+        private BigDecimal number() {
+            final int start = pos;
+            while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return new BigDecimal(json.substring(start, pos));
+            } catch (final NumberFormatException e) {
+                pos = start;
+                throw error("Value expected");
+            }
+        }
+
+        private void literal(final String literal) {
+            if (!json.startsWith(literal, pos)) {
+                throw error("Value expected");
+            }
+            pos += literal.length();
+        }
+
+        private void expect(final char c) {
+            if (peek() != c) {
+                throw error("'" + c + "' expected");
+            }
+            pos++;
+        }
+
+        private char peek() {
+            return pos < json.length() ? json.charAt(pos) : 0;
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(final String message) {
+            return new IllegalArgumentException(message + " at position " + pos);
+        }
+    }
+}
@@ -2,9 +2,19 @@ package ch.bubendorf.gpx2fit;
 
 import com.beust.jcommander.JCommander;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Date;
 import java.util.List;
 
@@ -24,7 +34,8 @@ public class Main {
         }
 
         if (cmdArgs.isShowVersion()) {
-            System.out.println("gpx2fit Version " + BuildVersion.getBuildVersion());
+            System.out.println("gpx2fit Version " + BuildVersion.getBuildVersion() + " (build "
+                    + BuildVersion.getBuildId() + ")");
             System.exit(1);
         }
 
@@ -41,14 +52,98 @@ public class Main {
         options.setRoutes(cmdArgs.isRoutes());
         options.setWaypoints(cmdArgs.isWaypoints());
         options.setTolerance(cmdArgs.getTolerance());
+        options.setMaxPoints(cmdArgs.getMaxPoints());
+        options.setPointBudget(cmdArgs.isPointBudget());
+        options.setStreamingParser(cmdArgs.isStreamingParser());
+        options.setParallelReduce(cmdArgs.isParallelReduce());
+        options.setPipelined(cmdArgs.isPipelined());
+        options.setDedupePositions(cmdArgs.isDedupePositions());
+        options.setDedupeTimes(cmdArgs.isDedupeTimes());
+        options.setDistanceModel(cmdArgs.getDistanceModel());
+
+        final ConversionCache cache = cmdArgs.getCacheDir() == null ? null :
+                new ConversionCache(Path.of(cmdArgs.getCacheDir()), cmdArgs.getCacheSize() * 1024L * 1024L);
+
+        if (cmdArgs.isWorker()) {
+            // Stay alive and convert the jobs from stdin until it is closed
+            final Worker worker = new Worker(options, cmdArgs.getThreads(), cache, cmdArgs.isStats());
+            final BufferedReader jobs = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            final int failures = worker.run(jobs, new PrintStream(System.out, true, StandardCharsets.UTF_8));
+            System.exit(failures == 0 ? 0 : 3);
+        }
+
+        if (cmdArgs.getServePort() > 0) {
+            final ConversionServer server = new ConversionServer(options, cmdArgs.getMaxConcurrent(),
+                    cmdArgs.getMaxSize() * 1024L * 1024L, cache);
+            server.start(new InetSocketAddress(cmdArgs.getServePort()));
+            System.err.println("gpx2fit listening on port " + server.getPort());
+            return;
+        }
+
+        if (!"-".equals(inputFile) && BatchConverter.isBatchInput(inputFile)) {
+            // Convert a whole directory or all the files matching a glob pattern into a mirrored output tree
+            final String outputDir = parameters.size() < 2 ? inputFile : outputFile;
+            if ("-".equals(outputDir) || BatchConverter.isBatchInput(outputDir) && !new File(outputDir).isDirectory()) {
+                System.err.println("The batch mode requires an output directory");
+                System.exit(2);
+            }
+            final BatchConverter batchConverter = new BatchConverter(options, cmdArgs.getThreads(), System.err, cache);
+            final int failures = batchConverter.convert(inputFile, Path.of(outputDir));
+            System.exit(failures == 0 ? 0 : 3);
+        }
+
         final Date date = "-".equals(inputFile) ? null : new Date(new File(inputFile).lastModified());
+        final ConversionStats stats = cmdArgs.isStats() ? new ConversionStats() : null;
+        if (cmdArgs.isLowMemory()) {
+            // The file is read twice, so it can not be stdin
+            if ("-".equals(inputFile)) {
+                System.err.println("The low memory mode requires an input file");
+                System.exit(2);
+            }
+            final Gpx2Fit gpx2fit = Gpx2Fit.lowMemory(Path.of(inputFile), inputFile, options, stats);
+            if ("-".equals(outputFile)) {
+                gpx2fit.writeFit(System.out, date);
+            } else {
+                gpx2fit.writeFit(new File(outputFile), date);
+            }
+            printStats(stats);
+            return;
+        }
+        if (cache != null) {
+            final ConversionCache.Source source;
+            if ("-".equals(inputFile)) {
+                // Read twice: for the key and for the conversion
+                final byte[] gpx = System.in.readAllBytes();
+                source = () -> new ByteArrayInputStream(gpx);
+            } else {
+                source = () -> new BufferedInputStream(new FileInputStream(inputFile));
+            }
+            try (final InputStream fit = cache.convert(source, inputFile, options, date, stats)) {
+                if ("-".equals(outputFile)) {
+                    fit.transferTo(System.out);
+                    System.out.flush();
+                } else {
+                    Files.copy(fit, Path.of(outputFile), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            printStats(stats);
+            return;
+        }
+
         final InputStream inputStream = "-".equals(inputFile) ? System.in : new FileInputStream(inputFile);
-        final Gpx2Fit gpx2fit = new Gpx2Fit(inputFile, inputStream, options);
+        final Gpx2Fit gpx2fit = new Gpx2Fit(inputFile, inputStream, options, stats);
 
         if ("-".equals(outputFile)) {
             gpx2fit.writeFit(System.out, date);
         } else {
             gpx2fit.writeFit(new File(outputFile), date);
         }
+        printStats(stats);
+    }
+
+    private static void printStats(final ConversionStats stats) {
+        if (stats != null) {
+            System.err.println(stats.toJson());
+        }
     }
 }
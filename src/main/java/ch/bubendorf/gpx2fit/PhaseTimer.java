@@ -0,0 +1,74 @@
+package ch.bubendorf.gpx2fit;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Measures a phase of a conversion for the {@link ConversionStats} and as a {@link ConversionPhaseEvent}. Without
+ * stats and without a recording of the event, only the event is created.
+ */
+final class PhaseTimer {
+
+    private final ConversionStats stats;
+    private final ConversionStats.Phase phase;
+    private final ConversionPhaseEvent event = new ConversionPhaseEvent();
+    private final long start;
+    private final long allocated;
+
+    PhaseTimer(final ConversionStats stats, final ConversionStats.Phase phase) {
+        this.stats = stats;
+        this.phase = phase;
+        event.begin();
+        if (stats != null) {
+            allocated = Allocation.current();
+            start = System.nanoTime();
+        } else {
+            allocated = 0;
+            start = 0;
+        }
+    }
+
+    /**
+     * @param points Number of points of the phase for the event
+     */
+    void end(final String course, final int points) {
+        event.end();
+        if (stats != null) {
+            final long nanos = System.nanoTime() - start;
+            stats.add(phase, nanos, allocated < 0 ? -1 : Allocation.current() - allocated);
+        }
+        if (event.shouldCommit()) {
+            event.phase = phase.name().toLowerCase(Locale.ROOT);
+            event.course = course;
+            event.points = points;
+            event.commit();
+        }
+    }
+
+    /**
+     * The allocation counter of the current thread. A holder class, so java.management is only loaded when the stats
+     * are collected.
+     */
+    private static final class Allocation {
+
+        private static final com.sun.management.ThreadMXBean BEAN = getBean();
+
+        private static com.sun.management.ThreadMXBean getBean() {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean bean =
+                        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                    return bean;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Bytes allocated by the current thread or -1 if not supported.
+         */
+        static long current() {
+            return BEAN == null ? -1 : BEAN.getCurrentThreadAllocatedBytes();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ch.bubendorf.gpx2fit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a GPX with the streaming parser on a reader thread and hands the track points in chunks to the consumer on
+ * the calling thread, so the parsing and the processing of the points (distances, encoding) run concurrently. The
+ * chunks are recycled through a fixed pool: the reader waits for a free chunk if the consumer is slower, so at most
+ * {@link #CHUNKS} * {@link #CHUNK_SIZE} points are in flight. The consumer receives the same points in the same
+ * order as from {@link GpxStreamReader#read(InputStream)}.
+ */
+final class PointPipeline {
+
+    static final int CHUNK_SIZE = 4096;
+    static final int CHUNKS = 4;
+
+    private PointPipeline() {
+    }
+
+    /**
+     * @param consumer Receives the track points on the calling thread
+     * @return The reader with the route and waypoints
+     * @throws IOException The GPX is not well-formed XML or could not be read
+     */
+    static GpxStreamReader read(final InputStream in, final Gpx2FitOptions options,
+                                final GpxStreamReader.PointConsumer consumer) throws IOException {
+        final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(CHUNKS);
+        final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(CHUNKS + 1);
+        for (int i = 0; i < CHUNKS; i++) {
+            free.add(new Chunk(CHUNK_SIZE));
+        }
+
+        final Producer producer = new Producer(free, full);
+        final GpxStreamReader reader = new GpxStreamReader(options, producer);
+        final Throwable[] failure = new Throwable[1];
+        final Thread thread = new Thread(() -> {
+            try {
+                reader.read(in);
+                producer.flush();
+            } catch (final Throwable e) {
+                failure[0] = e;
+            } finally {
+                // The end marker, there is always room for it
+                full.add(Chunk.END);
+            }
+        }, "gpx2fit-reader");
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            Chunk chunk;
+            while ((chunk = full.take()) != Chunk.END) {
+                for (int i = 0; i < chunk.size; i++) {
+                    consumer.add(chunk.names[i], chunk.lat[i], chunk.lon[i], chunk.ele[i], chunk.time[i]);
+                }
+                chunk.clear();
+                free.add(chunk);
+            }
+            thread.join();
+        } catch (final InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the GPX");
+        } catch (final RuntimeException | Error e) {
+            // Stop the reader, it may wait for a free chunk
+            thread.interrupt();
+            throw e;
+        }
+
+        // The join makes the points read by the reader thread visible
+        if (failure[0] instanceof IOException) {
+            throw (IOException) failure[0];
+        } else if (failure[0] instanceof RuntimeException) {
+            throw (RuntimeException) failure[0];
+        } else if (failure[0] != null) {
+            throw new IllegalStateException(failure[0]);
+        }
+        return reader;
+    }
+
+    /**
+     * Collects the points of the reader thread into chunks.
+     */
+    private static final class Producer implements GpxStreamReader.PointConsumer {
+
+        private final BlockingQueue<Chunk> free;
+        private final BlockingQueue<Chunk> full;
+        private Chunk chunk;
+
+        Producer(final BlockingQueue<Chunk> free, final BlockingQueue<Chunk> full) {
+            this.free = free;
+            this.full = full;
+        }
+
+        @Override
+        public void add(final String name, final double lat, final double lon, final double ele, final long time) {
+            if (chunk == null) {
+                try {
+                    chunk = free.take();
+                } catch (final InterruptedException e) {
+                    throw new IllegalStateException("The consumer of the points has failed", e);
+                }
+            }
+            chunk.add(name, lat, lon, ele, time);
+            if (chunk.size == CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (chunk != null) {
+                full.add(chunk);
+                chunk = null;
+            }
+        }
+    }
+
+    private static final class Chunk {
+
+        static final Chunk END = new Chunk(0);
+
+        final String[] names;
+        final double[] lat;
+        final double[] lon;
+        final double[] ele;
+        final long[] time;
+        int size;
+
+        Chunk(final int capacity) {
+            names = new String[capacity];
+            lat = new double[capacity];
+            lon = new double[capacity];
+            ele = new double[capacity];
+            time = new long[capacity];
+        }
+
+        void add(final String name, final double lat, final double lon, final double ele, final long time) {
+            names[size] = name;
+            this.lat[size] = lat;
+            this.lon[size] = lon;
+            this.ele[size] = ele;
+            this.time[size] = time;
+            size++;
+        }
+
+        void clear() {
+            Arrays.fill(names, 0, size, null);
+            size = 0;
+        }
+    }
+}
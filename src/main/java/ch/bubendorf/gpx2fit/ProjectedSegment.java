@@ -0,0 +1,107 @@
+package ch.bubendorf.gpx2fit;
+
+import static ch.bubendorf.gpx2fit.GeoCalculator.WGS84_A;
+import static ch.bubendorf.gpx2fit.GeoCalculator.WGS84_E2;
+
+/**
+ * A line segment projected into the local tangent plane (east/north in m) at its start point.
+ * <p>
+ * The points are given as earth-centered, earth-fixed (ECEF) coordinates on the WGS84 ellipsoid, computed once
+ * per point with {@link #toEcef(TrackBuffer)}. Projecting a point into the plane of a segment and calculating its
+ * distance to the segment is then plain arithmetic without any trigonometric function.
+ * <p>
+ * The geodesic from the start to the end point is (almost) a straight line in the tangent plane at the start
+ * point, so the result is close to the geodesic distance for short segments. See ReducerTest for the bound.
+ * An instance is mutable and can be reused for several segments, but must not be shared between threads.
+ */
+final class ProjectedSegment {
+
+    private double originX;
+    private double originY;
+    private double originZ;
+    private double eastX;
+    private double eastY;
+    private double northX;
+    private double northY;
+    private double northZ;
+    private double endEast;
+    private double endNorth;
+    private double length2;
+
+    /**
+     * ECEF coordinates of all the points of the buffer, interleaved as x, y, z. Computed by
+     * {@link DistanceKernel#scalar()}, so the reduction does not depend on the JIT.
+     */
+    static double[] toEcef(final TrackBuffer t) {
+        final double[] ecef = new double[3 * t.size()];
+        DistanceKernel.scalar().toEcef(t.latArray(), t.lonArray(), 0, t.size(), ecef);
+        return ecef;
+    }
+
+    static void toEcef(final double lat, final double lon, final double[] ecef, final int offset) {
+        final double phi = Math.toRadians(lat);
+        final double lambda = Math.toRadians(lon);
+        final double sinPhi = Math.sin(phi);
+        final double cosPhi = Math.cos(phi);
+        final double n = WGS84_A / Math.sqrt(1.0 - WGS84_E2 * sinPhi * sinPhi);
+        ecef[offset] = n * cosPhi * Math.cos(lambda);
+        ecef[offset + 1] = n * cosPhi * Math.sin(lambda);
+        ecef[offset + 2] = n * (1.0 - WGS84_E2) * sinPhi;
+    }
+
+    /**
+     * Set the segment from the point start to the point end.
+     *
+     * @param t     The points
+     * @param ecef  The ECEF coordinates of the points
+     * @param start Index of the start point
+     * @param end   Index of the end point
+     */
+    void set(final TrackBuffer t, final double[] ecef, final int start, final int end) {
+        final double phi = Math.toRadians(t.getLat(start));
+        final double lambda = Math.toRadians(t.getLon(start));
+        final double sinPhi = Math.sin(phi);
+        final double cosPhi = Math.cos(phi);
+        final double sinLambda = Math.sin(lambda);
+        final double cosLambda = Math.cos(lambda);
+
+        originX = ecef[3 * start];
+        originY = ecef[3 * start + 1];
+        originZ = ecef[3 * start + 2];
+        eastX = -sinLambda;
+        eastY = cosLambda;
+        northX = -sinPhi * cosLambda;
+        northY = -sinPhi * sinLambda;
+        northZ = cosPhi;
+
+        endEast = east(ecef, end);
+        endNorth = north(ecef, end);
+        length2 = endEast * endEast + endNorth * endNorth;
+    }
+
+    private double east(final double[] ecef, final int point) {
+        return eastX * (ecef[3 * point] - originX) + eastY * (ecef[3 * point + 1] - originY);
+    }
+
+    private double north(final double[] ecef, final int point) {
+        return northX * (ecef[3 * point] - originX) + northY * (ecef[3 * point + 1] - originY)
+                + northZ * (ecef[3 * point + 2] - originZ);
+    }
+
+    /**
+     * Distance in m from the point to the segment.
+     */
+    double distance(final double[] ecef, final int point) {
+        final double x = east(ecef, point);
+        final double y = north(ecef, point);
+        if (length2 == 0) {
+            // Start and end are the same ==> Use the distance to the start
+            return Math.sqrt(x * x + y * y);
+        }
+        // Position of the foot of the perpendicular on the segment (0 = start, 1 = end)
+        final double f = Math.max(0, Math.min(1, (x * endEast + y * endNorth) / length2));
+        final double dx = x - f * endEast;
+        final double dy = y - f * endNorth;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -18,9 +18,13 @@
 package ch.bubendorf.gpx2fit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-
-import static ch.bubendorf.gpx2fit.GeoCalculator.dist;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
 
 /**
  * Reduces Tracks
@@ -30,38 +34,68 @@ public abstract class Reducer {
 
 	public static final double EPSILON = 1E-8;
 
+	/**
+	 * Min. number of points of a track or a part of it to be processed in parallel by reduceParallel.
+	 */
+	public static final int PARALLEL_THRESHOLD = 10000;
+
 	/**
 	 * Finds the TrackPoint with the biggest distance to a given line.
-	 * @param line Array of type WayPoint[] where the first element is the start and the last element is the end of the line
-	 * @return Index of point with the biggest distance to line
+	 * The line is projected once into a local plane, the distances of the points are then plain arithmetic.
+	 * @param t The track
+	 * @param ecef The ECEF coordinates of the track points
+	 * @param first Index of the start of the line
+	 * @param last Index of the end of the line
+	 * @param segment Reused for the projection of the line
+	 * @param split Receives the index of the point with the biggest distance to the line and its distance
 	 */
-	private static int getPointIndexWithBiggestDistanceToLine(final List<WayPoint> line){
-		double maxDistance = 0;
-		int maxDistancePoint = 0;
-		final WayPoint startPoint = line.get(0);
-		final WayPoint endPoint = line.get(line.size() -1);
+	private static void getPointIndexWithBiggestDistanceToLine(final TrackBuffer t, final double[] ecef,
+														   final int first, final int last,
+														   final ProjectedSegment segment, final Split split){
+		segment.set(t, ecef, first, last);
+		getPointIndexWithBiggestDistance(ecef, segment, first + 1, last, split);
+		splitStraightLine(ecef, first, last, segment, split);
+	}
 
-		for(int i=1; i<line.size() -1; i++){
-			final WayPoint p = line.get(i);
-			final double dist = getDistancePointLine(p, startPoint, endPoint);
+	/**
+	 * Finds the point with the biggest distance to the segment in the index range [from, to[.
+	 * On a tie, the point with the lower index wins.
+	 */
+	private static void getPointIndexWithBiggestDistance(final double[] ecef, final ProjectedSegment segment,
+														 final int from, final int to, final Split split){
+		double maxDistance = 0;
+		int maxDistancePoint = from - 1;
+		for(int i=from; i<to; i++){
+			final double dist = segment.distance(ecef, i);
 			if (dist > maxDistance) {
 				maxDistance = dist;
 				maxDistancePoint = i;
 			}
 		}
-		if(line.size() <= 2){
-			maxDistancePoint=0;
-		}
-		if (maxDistance < EPSILON) {
+		split.index = maxDistancePoint;
+		split.distance = maxDistance;
+	}
+
+	private static void splitStraightLine(final double[] ecef, final int first, final int last,
+										  final ProjectedSegment segment, final Split split){
+		if (split.distance < EPSILON) {
 			// Eine gerade Linie oder sonst irgend ein komischer Fall! ==> Einfach die Mitte nehmen
-			maxDistancePoint = line.size() / 2;
+			split.index = first + (last - first + 1) / 2;
+			split.distance = segment.distance(ecef, split.index);
 		}
-		return maxDistancePoint;
+	}
+
+	/**
+	 * The result of getPointIndexWithBiggestDistanceToLine.
+	 */
+	private static final class Split {
+		private int index;
+		private double distance;
 	}
 
 	/**
 	 * This deletes TrackPoints (by the rules of the Douglas-Peucker-Algorithm).
-	 * It is called recursively, so be careful with big Arrays.
+	 * It works iteratively with an explicit stack, so the size of the track is only limited by the heap.
 	 * Currently, works only with Arrays that do not contain any null-references.
 	 * @param t Array of type TrackPoint[] that will be reduced;
 	 *             actually, no TrackPoints will be deleted from the Array,
@@ -73,29 +107,274 @@ public abstract class Reducer {
 		if(tolerance <= 0 || t.size() <= 2){
 			return t;
 		}
-		final int p = getPointIndexWithBiggestDistanceToLine(t);
-		final double distanceStartToEnd = dist(t.get(0), t.get(t.size() -1));
-		final double distPointToLine = getDistancePointLine(t.get(p), t.get(0), t.get(t.size() - 1));
-		final boolean isTooFar = distPointToLine > tolerance;
+		final boolean[] keep = getKeepMask(TrackBuffer.of(t), tolerance);
+		final List<WayPoint> result = new ArrayList<>(count(keep));
+		for (int i = 0; i < keep.length; i++) {
+			if (keep[i]) {
+				result.add(t.get(i));
+			}
+		}
+		return result;
+	}
 
-		if (isTooFar){
-			// Point is too far away from line  ==> Keep it
-			final List<WayPoint> t1Red = reduce(t.subList(0, p + 1), tolerance);
+	/**
+	 * Reduces the points of a TrackBuffer by the rules of the Douglas-Peucker-Algorithm.
+	 * @param t The points to reduce. The buffer itself is not modified.
+	 * @param tolerance The tolerance in meters. No point on the resulting track will have a
+	 *                     distance greater than this value to the original track.
+	 * @return A new TrackBuffer with the remaining points or t itself if there is nothing to reduce
+	 */
+	public static TrackBuffer reduce(final TrackBuffer t, final double tolerance){
+		if(tolerance <= 0 || t.size() <= 2){
+			return t;
+		}
+		return t.select(getKeepMask(t, tolerance));
+	}
 
-			final List<WayPoint> t2Red = reduce(t.subList(p, t.size()), tolerance);
+	/**
+	 * Reduces the points of a TrackBuffer like {@link #reduce(TrackBuffer, double)}, but processes the independent
+	 * halves of the track concurrently in the common ForkJoinPool. The result is identical to the sequential one.
+	 * Tracks with less than {@link #PARALLEL_THRESHOLD} points are reduced sequentially.
+	 */
+	public static TrackBuffer reduceParallel(final TrackBuffer t, final double tolerance){
+		return reduceParallel(t, tolerance, ForkJoinPool.commonPool());
+	}
 
-			final List<WayPoint> result = new ArrayList<>(t1Red.size() + t2Red.size());
-			result.addAll(t1Red);
-			result.addAll(t2Red.subList(1, t2Red.size()));
-			return result;
+	/**
+	 * Reduces the points of a TrackBuffer like {@link #reduceParallel(TrackBuffer, double)} in the given pool.
+	 */
+	public static TrackBuffer reduceParallel(final TrackBuffer t, final double tolerance, final ForkJoinPool pool){
+		if(tolerance <= 0 || t.size() <= 2){
+			return t;
+		}
+		if (t.size() < PARALLEL_THRESHOLD) {
+			return t.select(getKeepMask(t, tolerance));
 		}
+		return t.select(getKeepMask(t, tolerance, pool, PARALLEL_THRESHOLD));
+	}
 
-		// All points are within the tolerance ==> Just return the first and the last
-		return List.of(t.get(0), t.get(t.size() -1));
+	/**
+	 * Marks the points to keep. Instead of recursing into the two halves, the index ranges still to be
+	 * processed are kept on an explicit stack. The result is the same as with the recursive formulation.
+	 */
+	static boolean[] getKeepMask(final TrackBuffer t, final double tolerance) {
+		final boolean[] keep = new boolean[t.size()];
+		keep[0] = true;
+		keep[t.size() - 1] = true;
+		markRange(t, ProjectedSegment.toEcef(t), 0, t.size() - 1, tolerance, keep);
+		return keep;
 	}
 
 	/**
-	 * Calculates the distance from a given point to a line defined by two given points
+	 * Marks the points to keep with a ForkJoinPool. Ranges with at least threshold points are scanned in parallel
+	 * chunks and their two halves are processed as separate tasks, smaller ranges are processed sequentially.
+	 * Every task only writes the entries of its own range, so the result does not depend on the scheduling.
+	 */
+	static boolean[] getKeepMask(final TrackBuffer t, final double tolerance, final ForkJoinPool pool,
+								 final int threshold) {
+		final boolean[] keep = new boolean[t.size()];
+		keep[0] = true;
+		keep[t.size() - 1] = true;
+
+		final double[] ecef = new double[3 * t.size()];
+		final DistanceKernel kernel = DistanceKernel.scalar();
+		pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, (t.size() + threshold - 1) / threshold).parallel()
+				.forEach(c -> kernel.toEcef(t.latArray(), t.lonArray(), c * threshold,
+						Math.min((c + 1) * threshold, t.size()), ecef))));
+		pool.invoke(new ReduceTask(t, ecef, 0, t.size() - 1, tolerance, keep, threshold));
+		return keep;
+	}
+
+	/**
+	 * Marks the points to keep between start and end (both exclusive).
+	 */
+	private static void markRange(final TrackBuffer t, final double[] ecef, final int start, final int end,
+								  final double tolerance, final boolean[] keep) {
+		final ProjectedSegment segment = new ProjectedSegment();
+		final Split split = new Split();
+
+		// Pairs of first/last index
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = start;
+		stack[top++] = end;
+
+		while (top > 0) {
+			final int last = stack[--top];
+			final int first = stack[--top];
+			if (last - first < 2) {
+				continue;
+			}
+			getPointIndexWithBiggestDistanceToLine(t, ecef, first, last, segment, split);
+			final int p = split.index;
+			final boolean isTooFar = split.distance > tolerance;
+
+			if (isTooFar) {
+				// Point is too far away from line  ==> Keep it and process both halves
+				keep[p] = true;
+				if (top + 4 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[top++] = p;
+				stack[top++] = last;
+				stack[top++] = first;
+				stack[top++] = p;
+			}
+			// Else all points are within the tolerance ==> Just keep the first and the last
+		}
+	}
+
+	/**
+	 * Processes the line from first to last and forks the two halves.
+	 */
+	@SuppressWarnings("serial")
+	private static final class ReduceTask extends RecursiveAction {
+		private final TrackBuffer t;
+		private final double[] ecef;
+		private final int first;
+		private final int last;
+		private final double tolerance;
+		private final boolean[] keep;
+		private final int threshold;
+
+		private ReduceTask(final TrackBuffer t, final double[] ecef, final int first, final int last,
+						   final double tolerance, final boolean[] keep, final int threshold) {
+			this.t = t;
+			this.ecef = ecef;
+			this.first = first;
+			this.last = last;
+			this.tolerance = tolerance;
+			this.keep = keep;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first < threshold) {
+				markRange(t, ecef, first, last, tolerance, keep);
+				return;
+			}
+			final ProjectedSegment segment = new ProjectedSegment();
+			segment.set(t, ecef, first, last);
+			final Split split = new ScanTask(ecef, segment, first + 1, last, threshold).invoke();
+			splitStraightLine(ecef, first, last, segment, split);
+
+			if (split.distance > tolerance) {
+				// Point is too far away from line  ==> Keep it and process both halves
+				keep[split.index] = true;
+				invokeAll(new ReduceTask(t, ecef, first, split.index, tolerance, keep, threshold),
+						new ReduceTask(t, ecef, split.index, last, tolerance, keep, threshold));
+			}
+		}
+	}
+
+	/**
+	 * Finds the point with the biggest distance to the segment in the index range [from, to[ in parallel chunks.
+	 * The segment is only read.
+	 */
+	@SuppressWarnings("serial")
+	private static final class ScanTask extends RecursiveTask<Split> {
+		private final double[] ecef;
+		private final ProjectedSegment segment;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		private ScanTask(final double[] ecef, final ProjectedSegment segment, final int from, final int to,
+						 final int threshold) {
+			this.ecef = ecef;
+			this.segment = segment;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected Split compute() {
+			if (to - from <= threshold) {
+				final Split split = new Split();
+				getPointIndexWithBiggestDistance(ecef, segment, from, to, split);
+				return split;
+			}
+			final int mid = (from + to) >>> 1;
+			final ScanTask left = new ScanTask(ecef, segment, from, mid, threshold);
+			left.fork();
+			final Split rightSplit = new ScanTask(ecef, segment, mid, to, threshold).compute();
+			final Split leftSplit = left.join();
+			// Same as the sequential scan: The lower index wins on a tie
+			return rightSplit.distance > leftSplit.distance ? rightSplit : leftSplit;
+		}
+	}
+
+	/**
+	 * Calculates the significance of every point: The largest tolerance at which reduce() still keeps the point.
+	 * The line is split down to the single points, ignoring any tolerance. A point is kept if its own distance and
+	 * the distances of all the splits it depends on are greater than the tolerance, so its significance is the
+	 * minimum of them. The first and the last point get Double.POSITIVE_INFINITY.
+	 * @param t The track
+	 * @param significance Receives the significance of the points
+	 * @param order Receives the sequence in which the points are split off. A point always comes after the points
+	 *              it depends on.
+	 */
+	static void getSignificance(final TrackBuffer t, final double[] significance, final int[] order) {
+		final int n = t.size();
+		if (n == 0) {
+			return;
+		}
+		int sequence = 0;
+		significance[0] = Double.POSITIVE_INFINITY;
+		order[0] = sequence++;
+		significance[n - 1] = Double.POSITIVE_INFINITY;
+		order[n - 1] = sequence++;
+
+		final double[] ecef = ProjectedSegment.toEcef(t);
+		final ProjectedSegment segment = new ProjectedSegment();
+		final Split split = new Split();
+
+		// Pairs of first/last index
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = n - 1;
+
+		while (top > 0) {
+			final int last = stack[--top];
+			final int first = stack[--top];
+			if (last - first < 2) {
+				continue;
+			}
+			getPointIndexWithBiggestDistanceToLine(t, ecef, first, last, segment, split);
+			final int p = split.index;
+			// The later split of first and last created this line, its significance is the smaller one
+			significance[p] = Math.min(split.distance, Math.min(significance[first], significance[last]));
+			order[p] = sequence++;
+
+			if (top + 4 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[top++] = p;
+			stack[top++] = last;
+			stack[top++] = first;
+			stack[top++] = p;
+		}
+	}
+
+	private static int count(final boolean[] keep) {
+		int count = 0;
+		for (final boolean k : keep) {
+			if (k) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Calculates the distance from a given point to a line segment defined by two given points.
+	 * <p>
+	 * The points are projected into the tangent plane of the WGS84 ellipsoid at the start point. For segments up
+	 * to 10 km and points up to 2 km away the result is within 1 cm + 0.05% of the geodesic distance to the
+	 * segment up to 85° latitude, see ReducerTest.
 	 *
 	 * @param startPoint The start point of the line
 	 * @param endPoint   The end point of the line
@@ -103,49 +382,10 @@ public abstract class Reducer {
 	 * @return The distance from the point to the line in m
 	 */
 	public static double getDistancePointLine(final WayPoint point, final WayPoint startPoint, final WayPoint endPoint) {
-		/*
-		 * Write coordinates into variables
-		 * Coordinate system:
-		 * Y (lat)
-		 * ↑
-		 * |
-		 * |
-		 * |–––––––→X (lon)
-		 */
-		final double startLon = startPoint.getLon();
-		final double startLat = startPoint.getLat();
-		final double endLon = endPoint.getLon();
-		final double endLat = endPoint.getLat();
-		final double pointLon = point.getLon();
-		final double pointLat = point.getLat();
-
-		// Use the distance between Start/End to the point if the start and the end are the same
-		if (Math.abs(startLon - endLon) < 1e-6 && Math.abs(startLat - endLat) < 1e6) {
-			return dist(startLat, startLon, pointLat, pointLon);
-		}
-
-		// Calculate the equation of an imagined line between startPoint and endPoint
-		// y = ( m * x ) + t	→ m and t are unknown, the coordinates of startPoint and endPoint can be used as x and y
-		final double m = (endLat - startLat) / (endLon - startLon);    // m = Δy / Δx
-		final double t = startLat - m * startLon;    // t = y - m*x → Use coordinates of startPoint or endPoint as x and y
-
-		// Calculate the equation of an imagined line cutting the line mentioned above orthogonally
-		// y = ( m2 * x ) + t2	→ m2 and t2 are unknown, point's coordinates can be used as x and y
-		final double m2 = -1 / m;
-		final double t2 = pointLat - m2 * pointLon;
-
-		// Calculate the coordinates of the intersection point X of the lines mentioned above
-		// xLon = (m * xLat ) + t = (m2 * x) + t2
-		/* X is on y=m*x+t and y=m2*x+t2
-		 * m*xLat +t = m2*xLat +t2	// subtract t and m2*xLat from both sides of the equation to have all xLat on the left
-		 * m*xLat - m2*xLat = t2 -t	// Factorize
-		 * xLat*(m-m2) = t2 -t	// divide by (m-m2)
-		 * xLat = (t2-t) / (m-m2)
-		 */
-		final double xLon = (t2 - t) / (m - m2);
-		final double xLat = m2 * xLon + t2;    // Insert xLat into y=m*x+t
-
-		// Calculate the distance from point to X
-		return dist(point, new WayPoint(xLat, xLon));
+		final TrackBuffer t = TrackBuffer.of(List.of(startPoint, endPoint, point));
+		final ProjectedSegment segment = new ProjectedSegment();
+		final double[] ecef = ProjectedSegment.toEcef(t);
+		segment.set(t, ecef, 0, 1);
+		return segment.distance(ecef, 2);
 	}
 }
@@ -0,0 +1,154 @@
+package ch.bubendorf.gpx2fit;
+
+import java.util.Arrays;
+
+/**
+ * The Douglas-Peucker significance of every point of a track, calculated once.
+ * <p>
+ * The significance of a point is the largest tolerance at which {@link Reducer#reduce(TrackBuffer, double)} still
+ * keeps it. Reducing the track with any tolerance or to any number of points is then a single pass over the
+ * stored values instead of a new Douglas-Peucker run. Building the index costs about as much as a reduction with
+ * a tolerance of 0.
+ */
+public class ReductionIndex {
+
+    private final TrackBuffer points;
+    private final double[] significance;
+    private final int[] order;
+    private double[] sortedSignificance;
+
+    public ReductionIndex(final TrackBuffer points) {
+        this.points = points;
+        significance = new double[points.size()];
+        order = new int[points.size()];
+        Reducer.getSignificance(points, significance, order);
+    }
+
+    public TrackBuffer getPoints() {
+        return points;
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    /**
+     * The largest tolerance in m at which the point is still kept.
+     */
+    public double getSignificance(final int index) {
+        return significance[index];
+    }
+
+    /**
+     * Same result as {@link Reducer#reduce(TrackBuffer, double)} with the indexed points.
+     */
+    public TrackBuffer reduce(final double tolerance) {
+        if (tolerance <= 0 || points.size() <= 2) {
+            return points;
+        }
+        return points.select(getKeepMask(tolerance));
+    }
+
+    /**
+     * The points to keep with the given tolerance.
+     */
+    public boolean[] getKeepMask(final double tolerance) {
+        final boolean[] keep = new boolean[significance.length];
+        for (int i = 0; i < significance.length; i++) {
+            keep[i] = significance[i] > tolerance;
+        }
+        return keep;
+    }
+
+    /**
+     * Number of points remaining with the given tolerance.
+     */
+    public int count(final double tolerance) {
+        if (tolerance <= 0) {
+            return points.size();
+        }
+        int count = 0;
+        for (final double s : significance) {
+            if (s > tolerance) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The smallest tolerance that reduces the track to at most maxPoints points.
+     *
+     * @param maxPoints The max. number of points, at least 2
+     * @return The tolerance for {@link #reduce(double)} or 0 if the track has no more than maxPoints points
+     */
+    public double getTolerance(final int maxPoints) {
+        final int max = Math.max(maxPoints, 2);
+        if (max >= points.size()) {
+            return 0;
+        }
+        // The (max + 1)th most significant point must be dropped
+        final double[] sorted = getSortedSignificance();
+        return Math.max(sorted[sorted.length - 1 - max], Double.MIN_VALUE);
+    }
+
+    /**
+     * Reduces the track to the maxPoints most significant points. The result is the same as with the tolerance
+     * resulting in maxPoints points, if there is one.
+     *
+     * @param maxPoints The max. number of points, at least 2. 0 means no limit.
+     */
+    public TrackBuffer reduceTo(final int maxPoints) {
+        if (maxPoints <= 0 || points.size() <= Math.max(maxPoints, 2)) {
+            return points;
+        }
+        return points.select(getKeepMaskTo(maxPoints));
+    }
+
+    /**
+     * The maxPoints (at least 2) most significant points. Of several points with the same significance, the ones
+     * split off first by the Douglas-Peucker algorithm are kept.
+     */
+    public boolean[] getKeepMaskTo(final int maxPoints) {
+        final int max = Math.max(maxPoints, 2);
+        if (max >= points.size()) {
+            final boolean[] keep = new boolean[points.size()];
+            Arrays.fill(keep, true);
+            return keep;
+        }
+        final double[] sorted = getSortedSignificance();
+        final double threshold = sorted[sorted.length - max];
+        final boolean[] keep = getKeepMask(threshold);
+
+        // Fill up with the points at the threshold
+        int remaining = max;
+        int ties = 0;
+        for (int i = 0; i < significance.length; i++) {
+            if (keep[i]) {
+                remaining--;
+            } else if (significance[i] == threshold) {
+                ties++;
+            }
+        }
+        final long[] tied = new long[ties];
+        ties = 0;
+        for (int i = 0; i < significance.length; i++) {
+            if (significance[i] == threshold) {
+                tied[ties++] = ((long) order[i] << 32) | i;
+            }
+        }
+        Arrays.sort(tied);
+        for (int i = 0; i < remaining; i++) {
+            keep[(int) tied[i]] = true;
+        }
+        return keep;
+    }
+
+    private double[] getSortedSignificance() {
+        if (sortedSignificance == null) {
+            sortedSignificance = significance.clone();
+            Arrays.sort(sortedSignificance);
+        }
+        return sortedSignificance;
+    }
+}
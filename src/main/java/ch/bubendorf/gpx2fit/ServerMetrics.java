@@ -0,0 +1,118 @@
+package ch.bubendorf.gpx2fit;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the {@link ConversionServer}, written in the Prometheus text format.
+ */
+final class ServerMetrics {
+
+    // Upper bounds of the latency histogram in ms
+    private static final long[] BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final ConversionCache cache;
+    private final long startTime = System.nanoTime();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder latencySum = new LongAdder();
+    private final AtomicLong latencyMax = new AtomicLong();
+    private final LongAdder[] latencyBuckets = new LongAdder[BUCKETS.length];
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * @param cache The cache of the server or null
+     */
+    ServerMetrics(final ConversionCache cache) {
+        this.cache = cache;
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            latencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    void started() {
+        active.incrementAndGet();
+    }
+
+    /**
+     * A conversion request has been answered.
+     *
+     * @param nanos   Time from receiving the request to the end of the response
+     * @param in      Bytes read from the request
+     * @param out     Bytes written to the response
+     * @param success false if the request failed
+     */
+    void completed(final long nanos, final long in, final long out, final boolean success) {
+        active.decrementAndGet();
+        requests.increment();
+        if (!success) {
+            failures.increment();
+        }
+        bytesIn.add(in);
+        bytesOut.add(out);
+        latencySum.add(nanos);
+        latencyMax.accumulateAndGet(nanos, Math::max);
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (millis <= BUCKETS[i]) {
+                latencyBuckets[i].increment();
+                break;
+            }
+        }
+    }
+
+    /**
+     * A request was rejected because of the concurrency limit.
+     */
+    void rejected() {
+        rejections.increment();
+    }
+
+    String format() {
+        final StringBuilder sb = new StringBuilder();
+        append(sb, "gpx2fit_uptime_seconds", "gauge", (System.nanoTime() - startTime) / 1E9);
+        append(sb, "gpx2fit_requests_total", "counter", requests.sum());
+        append(sb, "gpx2fit_requests_failed_total", "counter", failures.sum());
+        append(sb, "gpx2fit_requests_rejected_total", "counter", rejections.sum());
+        append(sb, "gpx2fit_requests_active", "gauge", active.get());
+        append(sb, "gpx2fit_request_bytes_total", "counter", bytesIn.sum());
+        append(sb, "gpx2fit_response_bytes_total", "counter", bytesOut.sum());
+        append(sb, "gpx2fit_request_duration_max_seconds", "gauge", latencyMax.get() / 1E9);
+
+        sb.append("# TYPE gpx2fit_request_duration_seconds histogram\n");
+        long count = 0;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            count += latencyBuckets[i].sum();
+            sb.append(String.format(Locale.ROOT, "gpx2fit_request_duration_seconds_bucket{le=\"%s\"} %d%n",
+                    BUCKETS[i] / 1E3, count));
+        }
+        final long total = requests.sum();
+        sb.append("gpx2fit_request_duration_seconds_bucket{le=\"+Inf\"} ").append(total).append('\n');
+        sb.append(String.format(Locale.ROOT, "gpx2fit_request_duration_seconds_sum %.6f%n", latencySum.sum() / 1E9));
+        sb.append("gpx2fit_request_duration_seconds_count ").append(total).append('\n');
+
+        if (cache != null) {
+            append(sb, "gpx2fit_cache_hits_total", "counter", cache.getHits());
+            append(sb, "gpx2fit_cache_misses_total", "counter", cache.getMisses());
+            append(sb, "gpx2fit_cache_evictions_total", "counter", cache.getEvictions());
+            append(sb, "gpx2fit_cache_bytes", "gauge", cache.getSize());
+        }
+        return sb.toString();
+    }
+
+    private static void append(final StringBuilder sb, final String name, final String type, final long value) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void append(final StringBuilder sb, final String name, final String type, final double value) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(String.format(Locale.ROOT, "%s %.6f%n", name, value));
+    }
+}
@@ -0,0 +1,265 @@
+package ch.bubendorf.gpx2fit;
+
+import com.garmin.fit.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact storage for a sequence of points (struct of arrays).
+ * <p>
+ * Latitude, longitude, elevation and total distance are stored in double[], the time in a long[] (milliseconds
+ * since the Java epoch) and the names in a side table which is only allocated when the first point with a name
+ * is added. The points are accessed by their index. A buffer created with a {@link TrackSummary} feeds every added
+ * point to it.
+ * <p>
+ * Heap usage per point, measured with 1'000'000 track points on a 64-bit JDK 17 with compressed oops:
+ * <ul>
+ *     <li>List&lt;WayPoint&gt; (WayPoint + Date + list slot): 84 bytes, plus 4 bytes for every further list
+ *     referencing the same points (e.g. pointsToUse)</li>
+ *     <li>TrackBuffer without names: 40 bytes after {@link #trimToSize()}</li>
+ * </ul>
+ */
+public class TrackBuffer implements GpxStreamReader.PointConsumer {
+
+    /**
+     * The time of a point without a time (the FIT epoch).
+     */
+    public static final long NO_TIME = DateTime.OFFSET;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private double[] lat;
+    private double[] lon;
+    private double[] ele;
+    private double[] totalDist;
+    private long[] time;
+    private String[] names;
+    private int size;
+    private final TrackSummary summary;
+
+    public TrackBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param summary Fed with every added point, which sets its total distance
+     */
+    public TrackBuffer(final TrackSummary summary) {
+        this(DEFAULT_CAPACITY, summary);
+    }
+
+    public TrackBuffer(final int capacity) {
+        this(capacity, null);
+    }
+
+    private TrackBuffer(final int capacity, final TrackSummary summary) {
+        this.summary = summary;
+        final int initialCapacity = Math.max(capacity, 1);
+        lat = new double[initialCapacity];
+        lon = new double[initialCapacity];
+        ele = new double[initialCapacity];
+        totalDist = new double[initialCapacity];
+        time = new long[initialCapacity];
+    }
+
+    public static TrackBuffer of(final List<WayPoint> points) {
+        final TrackBuffer buffer = new TrackBuffer(points.size());
+        for (final WayPoint point : points) {
+            buffer.add(point);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void add(final String name, final double lat, final double lon, final double ele, final long time) {
+        add(name, lat, lon, ele, time, Double.NaN);
+    }
+
+    private void add(final String name, final double lat, final double lon, final double ele, final long time,
+                     final double totalDist) {
+        if (size == this.lat.length) {
+            grow();
+        }
+        this.lat[size] = lat;
+        this.lon[size] = lon;
+        this.ele[size] = ele;
+        this.time[size] = time;
+        this.totalDist[size] = summary == null ? totalDist : summary.add(lat, lon, ele, time);
+        if (name != null) {
+            if (names == null) {
+                names = new String[this.lat.length];
+            }
+            names[size] = name;
+        }
+        size++;
+    }
+
+    public void add(final WayPoint point) {
+        add(point.getName(), point.getLat(), point.getLon(), point.getEle(), point.getTime(),
+                point.getTotalDist());
+    }
+
+    /**
+     * Append the point with the given index of another buffer, including its total distance.
+     */
+    public void add(final TrackBuffer other, final int index) {
+        add(other.getName(index), other.lat[index], other.lon[index], other.ele[index], other.time[index],
+                other.totalDist[index]);
+    }
+
+    private void grow() {
+        final int capacity = lat.length + (lat.length >> 1) + 1;
+        lat = Arrays.copyOf(lat, capacity);
+        lon = Arrays.copyOf(lon, capacity);
+        ele = Arrays.copyOf(ele, capacity);
+        totalDist = Arrays.copyOf(totalDist, capacity);
+        time = Arrays.copyOf(time, capacity);
+        if (names != null) {
+            names = Arrays.copyOf(names, capacity);
+        }
+    }
+
+    /**
+     * Release the unused capacity.
+     */
+    public void trimToSize() {
+        if (size < lat.length) {
+            final int capacity = Math.max(size, 1);
+            lat = Arrays.copyOf(lat, capacity);
+            lon = Arrays.copyOf(lon, capacity);
+            ele = Arrays.copyOf(ele, capacity);
+            totalDist = Arrays.copyOf(totalDist, capacity);
+            time = Arrays.copyOf(time, capacity);
+            if (names != null) {
+                names = Arrays.copyOf(names, capacity);
+            }
+        }
+    }
+
+    /**
+     * Create a new buffer with the points whose entry in the mask is true.
+     */
+    public TrackBuffer select(final boolean[] keep) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                count++;
+            }
+        }
+        final TrackBuffer result = new TrackBuffer(count);
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                result.add(this, i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The summary fed with the added points or null.
+     */
+    public TrackSummary getSummary() {
+        return summary;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The arrays of the latitudes, longitudes and total distances for the batch kernels of {@link DistanceKernel}.
+     * Only the first {@link #size()} entries are valid, the arrays are replaced when the buffer grows.
+     */
+    double[] latArray() {
+        return lat;
+    }
+
+    double[] lonArray() {
+        return lon;
+    }
+
+    double[] totalDistArray() {
+        return totalDist;
+    }
+
+    public double getLat(final int index) {
+        return lat[index];
+    }
+
+    public double getLon(final int index) {
+        return lon[index];
+    }
+
+    public int getLatSemi(final int index) {
+        return WayPoint.toSemiCircles(lat[index]);
+    }
+
+    public int getLonSemi(final int index) {
+        return WayPoint.toSemiCircles(lon[index]);
+    }
+
+    public double getEle(final int index) {
+        return ele[index];
+    }
+
+    public long getTime(final int index) {
+        return time[index];
+    }
+
+    /**
+     * Does not update the summary.
+     */
+    public void setTime(final int index, final long time) {
+        this.time[index] = time;
+    }
+
+    public String getName(final int index) {
+        return names == null ? null : names[index];
+    }
+
+    public double getTotalDist(final int index) {
+        return totalDist[index];
+    }
+
+    public void setTotalDist(final int index, final double totalDist) {
+        this.totalDist[index] = totalDist;
+    }
+
+    /**
+     * Distance between two points in m (without the elevation).
+     */
+    public double distance(final int index1, final int index2, final DistanceModel model) {
+        return model.distance(lat[index1], lon[index1], lat[index2], lon[index2]);
+    }
+
+    /**
+     * Distance between two points in m including the difference of the elevation.
+     */
+    public double distance3D(final int index1, final int index2, final DistanceModel model) {
+        final double d = distance(index1, index2, model);
+        if (!Double.isNaN(ele[index1]) && !Double.isNaN(ele[index2])) {
+            final double h = ele[index1] - ele[index2];
+            return Math.sqrt(d * d + h * h);
+        } else return d;
+    }
+
+    public WayPoint getWayPoint(final int index) {
+        final WayPoint point = new WayPoint(getName(index), lat[index], lon[index], ele[index], time[index]);
+        point.setTotalDist(totalDist[index]);
+        return point;
+    }
+
+    public List<WayPoint> toWayPoints() {
+        final List<WayPoint> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(getWayPoint(i));
+        }
+        return points;
+    }
+}
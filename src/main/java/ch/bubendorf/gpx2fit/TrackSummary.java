@@ -0,0 +1,393 @@
+package ch.bubendorf.gpx2fit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static java.lang.Double.isNaN;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * The values of a course needed for the file id and the lap message: first and last point, bounding box, min and max
+ * elevation, ascent, descent, total distance, the time at the forced speed and the course number. The summary is
+ * fed point by point, e.g. while the points are added to a {@link TrackBuffer} created with it, so a track which is
+ * not reduced needs no extra pass over its points. Only the last point is kept.
+ */
+public final class TrackSummary {
+
+    /**
+     * Min. number of points to be summarized in parallel by ofParallel.
+     */
+    public static final int PARALLEL_THRESHOLD = 10000;
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    private final DistanceModel distanceModel;
+    private final boolean use3dDistance;
+    private final double speed;
+    private final boolean walkingGrade;
+
+    private int count;
+    private double minEle = Double.NaN;
+    private double maxEle = Double.NaN;
+    private double totalAsc = Double.NaN;
+    private double totalDesc = Double.NaN;
+    private double totalDist;
+    private double minLat = 1000.0, minLong = 1000.0;
+    private double maxLat = -1000.0, maxLong = -1000.0;
+    private double startLat, startLon;
+    private long startTime;
+    private double lastLat, lastLon, lastEle;
+    private long lastTime;
+    private long forcedTime;
+    private int courseNumber = 1;
+
+    public TrackSummary(final Gpx2FitOptions options) {
+        distanceModel = options.getDistanceModel();
+        use3dDistance = options.isUse3dDistance();
+        speed = options.getSpeed();
+        walkingGrade = options.isWalkingGrade();
+    }
+
+    /**
+     * The summary of all the points of the buffer. Sets their total distance. The distances of the point pairs are
+     * computed at once by {@link DistanceKernel#scalar()}, which returns the same values as {@link #add}.
+     */
+    public static TrackSummary of(final TrackBuffer points, final Gpx2FitOptions options) {
+        final TrackSummary summary = new TrackSummary(options);
+        if (!points.isEmpty()) {
+            summary.merge(points, List.of(summary.summarize(points, new Chunk(0, points.size()))));
+        }
+        return summary;
+    }
+
+    /**
+     * Like {@link #of(TrackBuffer, Gpx2FitOptions)}, but computes the distances of the point pairs in parallel chunks
+     * in the common ForkJoinPool. Buffers with less than {@link #PARALLEL_THRESHOLD} points are summarized
+     * sequentially.
+     */
+    public static TrackSummary ofParallel(final TrackBuffer points, final Gpx2FitOptions options) {
+        return ofParallel(points, options, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Summarizes the points like {@link #of(TrackBuffer, Gpx2FitOptions)} with the given pool. The chunks compute
+     * the distances of their point pairs (the expensive part), the time at the forced speed and the order
+     * independent values: bounding box, min and max elevation and their part of the course number. The running
+     * sums of the distance, the ascent and the descent are then added up sequentially in the order of the points,
+     * so the result is identical to the one of {@link #of(TrackBuffer, Gpx2FitOptions)} and not only within a
+     * rounding error. Adding up the chunk sums instead would save little and differ by up to one ulp per chunk.
+     */
+    public static TrackSummary ofParallel(final TrackBuffer points, final Gpx2FitOptions options,
+                                          final ForkJoinPool pool) {
+        final int size = points.size();
+        if (size < PARALLEL_THRESHOLD) {
+            return of(points, options);
+        }
+
+        final TrackSummary summary = new TrackSummary(options);
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, size / (4 * pool.getParallelism()) + 1);
+        final List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += chunkSize) {
+            final Chunk chunk = new Chunk(from, Math.min(from + chunkSize, size));
+            tasks.add(pool.submit(() -> summary.summarize(points, chunk)));
+        }
+        final List<Chunk> chunks = new ArrayList<>(tasks.size());
+        for (final ForkJoinTask<Chunk> task : tasks) {
+            chunks.add(task.join());
+        }
+        summary.merge(points, chunks);
+        return summary;
+    }
+
+    /**
+     * Merges the summaries of the chunks, in the order of the points, and sums up the distance, the ascent and the
+     * descent.
+     */
+    private void merge(final TrackBuffer points, final List<Chunk> chunks) {
+        final int size = points.size();
+        for (final Chunk chunk : chunks) {
+            minLat = min(minLat, chunk.minLat);
+            minLong = min(minLong, chunk.minLong);
+            maxLat = max(maxLat, chunk.maxLat);
+            maxLong = max(maxLong, chunk.maxLong);
+            if (minEle > chunk.minEle || isNaN(minEle))
+                minEle = chunk.minEle;
+            if (maxEle < chunk.maxEle || isNaN(maxEle))
+                maxEle = chunk.maxEle;
+            forcedTime += chunk.forcedTime;
+            courseNumber = courseNumber * chunk.courseNumberFactor + chunk.courseNumber;
+        }
+
+        // The chunks have stored the distance to the previous point, sum it up like add
+        points.setTotalDist(0, 0);
+        for (int i = 1; i < size; i++) {
+            final double ele = points.getEle(i);
+            final double lastEle = points.getEle(i - 1);
+            if ((!isNaN(ele)) && (!isNaN(lastEle))) {
+                final double deltaEle = ele - lastEle;
+                if (deltaEle > 0.0) {
+                    if (isNaN(totalAsc))
+                        totalAsc = .0;
+                    totalAsc += deltaEle;
+                } else {
+                    if (isNaN(totalDesc))
+                        totalDesc = .0;
+                    totalDesc += Math.abs(deltaEle);
+                }
+            }
+            totalDist += points.getTotalDist(i);
+            points.setTotalDist(i, totalDist);
+        }
+
+        startLat = points.getLat(0);
+        startLon = points.getLon(0);
+        startTime = points.getTime(0);
+        forcedTime += startTime;
+        lastLat = points.getLat(size - 1);
+        lastLon = points.getLon(size - 1);
+        lastEle = points.getEle(size - 1);
+        lastTime = points.getTime(size - 1);
+        count = size;
+    }
+
+    /**
+     * Summarizes the points of the chunk and stores the distance of each point to the previous one as its total
+     * distance. Only reads the fields set by the constructor.
+     */
+    private Chunk summarize(final TrackBuffer points, final Chunk chunk) {
+        DistanceKernel.scalar().distances(distanceModel, points.latArray(), points.lonArray(), Math.max(chunk.from, 1),
+                chunk.to, points.totalDistArray());
+        for (int i = chunk.from; i < chunk.to; i++) {
+            final double lat = points.getLat(i);
+            final double lon = points.getLon(i);
+            final double ele = points.getEle(i);
+            if (!isNaN(ele)) {
+                if (chunk.minEle > ele || isNaN(chunk.minEle))
+                    chunk.minEle = ele;
+                if (chunk.maxEle < ele || isNaN(chunk.maxEle))
+                    chunk.maxEle = ele;
+            }
+            chunk.minLat = min(chunk.minLat, lat);
+            chunk.minLong = min(chunk.minLong, lon);
+            chunk.maxLat = max(chunk.maxLat, lat);
+            chunk.maxLong = max(chunk.maxLong, lon);
+
+            if (i > 0) {
+                final double dist = points.getTotalDist(i);
+                final double lastEle = points.getEle(i - 1);
+                double gradeSpeed = speed;
+                double step = dist;
+                if ((!isNaN(ele)) && (!isNaN(lastEle))) {
+                    final double deltaEle = ele - lastEle;
+                    if (walkingGrade) {
+                        gradeSpeed = walkingGradeFactor(deltaEle / dist) * speed;
+                    }
+                    if (use3dDistance) {
+                        step = Math.sqrt(dist * dist + deltaEle * deltaEle);
+                    }
+                }
+                points.setTotalDist(i, step);
+                chunk.forcedTime += (long) (dist / gradeSpeed * 1000.0);
+            }
+
+            // The course number of the chunk as if it started with 0, see ofParallel
+            chunk.courseNumber = 31 * chunk.courseNumber + Double.hashCode(lat);
+            chunk.courseNumber = 31 * chunk.courseNumber + Double.hashCode(lon);
+            chunk.courseNumber = 31 * chunk.courseNumber + Double.hashCode(ele);
+            chunk.courseNumber = 31 * chunk.courseNumber + Long.hashCode(points.getTime(i));
+            chunk.courseNumberFactor *= 31 * 31 * 31 * 31;
+        }
+        return chunk;
+    }
+
+    private static final class Chunk {
+        private final int from;
+        private final int to;
+        private double minEle = Double.NaN;
+        private double maxEle = Double.NaN;
+        private double minLat = 1000.0, minLong = 1000.0;
+        private double maxLat = -1000.0, maxLong = -1000.0;
+        private long forcedTime;
+        private int courseNumber;
+        private int courseNumberFactor = 1;
+
+        Chunk(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Adds the next point.
+     *
+     * @return The total distance up to this point in m
+     */
+    public double add(final double lat, final double lon, final double ele, final long time) {
+        if (!isNaN(ele)) {
+            if (minEle > ele || isNaN(minEle))
+                minEle = ele;
+            if (maxEle < ele || isNaN(maxEle))
+                maxEle = ele;
+        }
+
+        minLat = min(minLat, lat);
+        minLong = min(minLong, lon);
+        maxLat = max(maxLat, lat);
+        maxLong = max(maxLong, lon);
+
+        if (count == 0) {
+            startLat = lat;
+            startLon = lon;
+            startTime = time;
+            forcedTime = time;
+        } else {
+            final double dist = distanceModel.distance(lat, lon, lastLat, lastLon);
+            double gradeSpeed = speed;
+            if ((!isNaN(ele)) && (!isNaN(lastEle))) {
+                final double deltaEle = ele - lastEle;
+                if (deltaEle > 0.0) {
+                    if (isNaN(totalAsc))
+                        totalAsc = .0;
+                    totalAsc += deltaEle;
+                } else {
+                    if (isNaN(totalDesc))
+                        totalDesc = .0;
+                    totalDesc += Math.abs(deltaEle);
+                }
+
+                if (walkingGrade) {
+                    gradeSpeed = walkingGradeFactor(deltaEle / dist) * speed;
+                }
+                totalDist += use3dDistance ? Math.sqrt(dist * dist + deltaEle * deltaEle) : dist;
+            } else {
+                totalDist += dist;
+            }
+            forcedTime = forcedTime + (long) (dist / gradeSpeed * 1000.0);
+        }
+
+        // Identical inputs result in identical FIT files
+        courseNumber = 31 * courseNumber + Double.hashCode(lat);
+        courseNumber = 31 * courseNumber + Double.hashCode(lon);
+        courseNumber = 31 * courseNumber + Double.hashCode(ele);
+        courseNumber = 31 * courseNumber + Long.hashCode(time);
+
+        lastLat = lat;
+        lastLon = lon;
+        lastEle = ele;
+        lastTime = time;
+        count++;
+        return totalDist;
+    }
+
+    /**
+     * See {@link Gpx2Fit#getWalkingGradeFactor(double)}.
+     */
+    static double walkingGradeFactor(final double g) {
+        return 1.0 + (g * (19.5 + g * (46.3 + g * (-43.3 + g * (-30.4 + g * 155.4))))) / 3.6;
+    }
+
+    /**
+     * Number of points added.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public double getStartLat() {
+        return startLat;
+    }
+
+    public double getStartLon() {
+        return startLon;
+    }
+
+    /**
+     * Time of the first point in ms since the Java epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public double getEndLat() {
+        return lastLat;
+    }
+
+    public double getEndLon() {
+        return lastLon;
+    }
+
+    /**
+     * Time of the last point in ms since the Java epoch.
+     */
+    public long getEndTime() {
+        return lastTime;
+    }
+
+    /**
+     * Time of the last point at the speed of the options (with the walking grade if enabled), starting at the time
+     * of the first point.
+     */
+    public long getForcedTime() {
+        return forcedTime;
+    }
+
+    /**
+     * Min elevation in m or NaN if no point has an elevation.
+     */
+    public double getMinEle() {
+        return minEle;
+    }
+
+    /**
+     * Max elevation in m or NaN if no point has an elevation.
+     */
+    public double getMaxEle() {
+        return maxEle;
+    }
+
+    /**
+     * Total ascent in m or NaN if there was no ascent.
+     */
+    public double getTotalAscent() {
+        return totalAsc;
+    }
+
+    /**
+     * Total descent in m or NaN if there was no descent.
+     */
+    public double getTotalDescent() {
+        return totalDesc;
+    }
+
+    /**
+     * Total distance in m, in 3D if enabled in the options.
+     */
+    public double getTotalDistance() {
+        return totalDist;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMinLon() {
+        return minLong;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public double getMaxLon() {
+        return maxLong;
+    }
+
+    /**
+     * A number derived from all the points.
+     */
+    public int getCourseNumber() {
+        return courseNumber;
+    }
+}
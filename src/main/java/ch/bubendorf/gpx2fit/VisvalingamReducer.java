@@ -0,0 +1,175 @@
+package ch.bubendorf.gpx2fit;
+
+import java.util.Arrays;
+
+/**
+ * Reduces a track to a given number of points with the Visvalingam-Whyatt algorithm.
+ * <p>
+ * The effective area of a point is the area of the triangle with its two neighbours. The point with the smallest
+ * area is removed repeatedly and the areas of its neighbours are recalculated, until only the requested number of
+ * points remains. The areas are kept in an indexed min-heap, so the whole reduction takes O(n log n).
+ * <p>
+ * The triangles are calculated from the ECEF coordinates of the points (see {@link ProjectedSegment}), so there is
+ * no trigonometric function per step. The first and the last point are always kept.
+ */
+public abstract class VisvalingamReducer {
+
+    /**
+     * Reduces the points of a TrackBuffer to at most maxPoints points.
+     *
+     * @param t         The points to reduce. The buffer itself is not modified.
+     * @param maxPoints The max. number of points, at least 2. 0 means no limit.
+     * @return A new TrackBuffer with the remaining points or t itself if there is nothing to reduce
+     */
+    public static TrackBuffer reduce(final TrackBuffer t, final int maxPoints) {
+        if (maxPoints <= 0 || t.size() <= Math.max(maxPoints, 2)) {
+            return t;
+        }
+        return t.select(getKeepMask(t, Math.max(maxPoints, 2)));
+    }
+
+    static boolean[] getKeepMask(final TrackBuffer t, final int maxPoints) {
+        final int n = t.size();
+        final double[] ecef = ProjectedSegment.toEcef(t);
+
+        // Doubly linked list of the remaining points
+        final int[] prev = new int[n];
+        final int[] next = new int[n];
+        for (int i = 0; i < n; i++) {
+            prev[i] = i - 1;
+            next[i] = i + 1;
+        }
+
+        final AreaHeap heap = new AreaHeap(n);
+        for (int i = 1; i < n - 1; i++) {
+            heap.add(i, area(ecef, i - 1, i, i + 1));
+        }
+
+        final boolean[] keep = new boolean[n];
+        Arrays.fill(keep, true);
+        for (int remaining = n; remaining > maxPoints; remaining--) {
+            // A neighbour never gets a smaller area than the removed point, so the points are removed in
+            // the order of their (effective) area
+            final double minArea = heap.getMinArea();
+            final int point = heap.removeMin();
+            keep[point] = false;
+
+            final int before = prev[point];
+            final int after = next[point];
+            next[before] = after;
+            prev[after] = before;
+            if (before > 0) {
+                heap.update(before, Math.max(minArea, area(ecef, prev[before], before, after)));
+            }
+            if (after < n - 1) {
+                heap.update(after, Math.max(minArea, area(ecef, before, after, next[after])));
+            }
+        }
+        return keep;
+    }
+
+    /**
+     * Area in m² of the triangle between the three points.
+     */
+    static double area(final double[] ecef, final int a, final int b, final int c) {
+        final double abx = ecef[3 * b] - ecef[3 * a];
+        final double aby = ecef[3 * b + 1] - ecef[3 * a + 1];
+        final double abz = ecef[3 * b + 2] - ecef[3 * a + 2];
+        final double acx = ecef[3 * c] - ecef[3 * a];
+        final double acy = ecef[3 * c + 1] - ecef[3 * a + 1];
+        final double acz = ecef[3 * c + 2] - ecef[3 * a + 2];
+        final double x = aby * acz - abz * acy;
+        final double y = abz * acx - abx * acz;
+        final double z = abx * acy - aby * acx;
+        return Math.sqrt(x * x + y * y + z * z) / 2;
+    }
+
+    /**
+     * Binary min-heap of point indices ordered by their area (and by the index on equal areas), with the position
+     * of every point in the heap to update its area in O(log n).
+     */
+    private static final class AreaHeap {
+        private final int[] heap;
+        private final int[] position;
+        private final double[] area;
+        private int size;
+
+        private AreaHeap(final int capacity) {
+            heap = new int[capacity];
+            position = new int[capacity];
+            area = new double[capacity];
+        }
+
+        private void add(final int point, final double pointArea) {
+            area[point] = pointArea;
+            heap[size] = point;
+            position[point] = size;
+            siftUp(size++);
+        }
+
+        private int removeMin() {
+            final int point = heap[0];
+            size--;
+            if (size > 0) {
+                move(heap[size], 0);
+                siftDown(0);
+            }
+            return point;
+        }
+
+        private double getMinArea() {
+            return area[heap[0]];
+        }
+
+        private void update(final int point, final double pointArea) {
+            final double oldArea = area[point];
+            area[point] = pointArea;
+            if (pointArea < oldArea) {
+                siftUp(position[point]);
+            } else {
+                siftDown(position[point]);
+            }
+        }
+
+        private boolean less(final int point1, final int point2) {
+            return area[point1] < area[point2] || (area[point1] == area[point2] && point1 < point2);
+        }
+
+        private void move(final int point, final int index) {
+            heap[index] = point;
+            position[point] = index;
+        }
+
+        private void siftUp(int index) {
+            final int point = heap[index];
+            while (index > 0) {
+                final int parent = (index - 1) >>> 1;
+                if (!less(point, heap[parent])) {
+                    break;
+                }
+                move(heap[parent], index);
+                index = parent;
+            }
+            move(point, index);
+        }
+
+        private void siftDown(int index) {
+            final int point = heap[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!less(heap[child], point)) {
+                    break;
+                }
+                move(heap[child], index);
+                index = child;
+            }
+            move(point, index);
+        }
+    }
+}
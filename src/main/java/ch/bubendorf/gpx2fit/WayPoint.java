@@ -1,49 +1,34 @@
 package ch.bubendorf.gpx2fit;
 
-import com.garmin.fit.DateTime;
-import org.gavaghan.geodesy.Ellipsoid;
-import org.gavaghan.geodesy.GeodeticCalculator;
-import org.gavaghan.geodesy.GlobalCoordinates;
-
-import java.util.Date;
-
-
 public class WayPoint {
-    // instantiate the calculator
-    private static final GeodeticCalculator geoCalc = new GeodeticCalculator();
-
-    public static final Date RefDate = new Date(DateTime.OFFSET);
-
-    // select a reference ellipsoid
-    private static final Ellipsoid reference = Ellipsoid.WGS84;
 
     private double lat;
     private double lon;
     private double ele;
-    private Date time;
+    /**
+     * Time in ms since the Java epoch, {@link TrackBuffer#NO_TIME} if the point has no time.
+     */
+    private long time;
     private double totalDist = Double.NaN;
     private final String name;
 
     public WayPoint(final double lat, final double lon) {
-        this(null, lat, lon, 0, null);
+        this(null, lat, lon, 0, TrackBuffer.NO_TIME);
     }
 
-    public WayPoint(final String name, final double lat, final double lon, final double ele, final Date time) {
+    public WayPoint(final String name, final double lat, final double lon, final double ele, final long time) {
         this.lat = lat;
         this.lon = lon;
         this.ele = ele;
         this.time = time;
         this.name = name;
-        if (this.time == null) {
-            this.time = RefDate;
-        }
     }
 
     public WayPoint(final io.jenetics.jpx.WayPoint point) {
         lat = point.getLatitude().doubleValue();
         lon = point.getLongitude().doubleValue();
         ele = point.getElevation().isPresent() ? point.getElevation().get().doubleValue() : 0;
-        time = point.getTime().isPresent() ? Date.from(point.getTime().get()) : RefDate;
+        time = point.getTime().isPresent() ? point.getTime().get().toEpochMilli() : TrackBuffer.NO_TIME;
 //        totalDist =
         name = point.getName().orElse(null);
     }
@@ -77,7 +62,7 @@ public class WayPoint {
         return ele;
     }
 
-    public Date getTime() {
+    public long getTime() {
         return time;
     }
     public void setLat(final double lat) {
@@ -92,22 +77,24 @@ public class WayPoint {
         this.ele = ele;
     }
 
-    public void setTime(final Date time) {
+    public void setTime(final long time) {
         this.time = time;
     }
 
     public double distance(final WayPoint other) {
-        return geoCalc.calculateGeodeticCurve(reference,
-                new GlobalCoordinates(getLat(), this.getLon()),
-                new GlobalCoordinates(other.getLat(), other.getLon())
-        ).getEllipsoidalDistance();
+        return distance(other, DistanceModel.VINCENTY);
+    }
+
+    public double distance(final WayPoint other, final DistanceModel model) {
+        return model.distance(getLat(), getLon(), other.getLat(), other.getLon());
     }
 
     public double distance3D(final WayPoint other) {
-        final double d = geoCalc.calculateGeodeticCurve(reference,
-                new GlobalCoordinates(getLat(), this.getLon()),
-                new GlobalCoordinates(other.getLat(), other.getLon())
-        ).getEllipsoidalDistance();
+        return distance3D(other, DistanceModel.VINCENTY);
+    }
+
+    public double distance3D(final WayPoint other, final DistanceModel model) {
+        final double d = distance(other, model);
 
         if (!Double.isNaN(getEle()) && !Double.isNaN(other.getEle())) {
             final double h = (getEle() - other.getEle());
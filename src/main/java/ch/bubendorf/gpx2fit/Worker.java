@@ -0,0 +1,197 @@
+package ch.bubendorf.gpx2fit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts the jobs read from a stream, one JSON object per line, e.g.
+ * <pre>
+ * {"id": 1, "input": "tracks/a.gpx", "output": "fit/a.fit", "options": {"max-points": 500, "budget": true}}
+ * </pre>
+ * The options have the names of the long command line options like the query parameters of the
+ * {@link ConversionServer}, the options of the worker are the defaults. "name" is the course name (default: the
+ * input path), "modified" the creation time of the FIT in ms since 1970 (default: the modification time of the
+ * input). The jobs run concurrently, for every job a result line is written as soon as it is done:
+ * <pre>
+ * {"id": 1, "input": "tracks/a.gpx", "output": "fit/a.fit", "status": "ok", "millis": 12.345, "bytes": 20113}
+ * {"id": 2, "input": "tracks/b.gpx", "status": "error", "error": "..."}
+ * </pre>
+ * The results are not in the order of the jobs, "id" is copied from the job to the result. With stats, the results
+ * of the successful jobs contain the {@link ConversionStats} in "stats".
+ */
+public class Worker {
+
+    private final Gpx2FitOptions defaults;
+    private final int threads;
+    private final ConversionCache cache;
+    private final boolean stats;
+
+    /**
+     * @param cache Cache of the converted files or null
+     */
+    public Worker(final Gpx2FitOptions defaults, final int threads, final ConversionCache cache) {
+        this(defaults, threads, cache, false);
+    }
+
+    /**
+     * @param cache Cache of the converted files or null
+     * @param stats Add the {@link ConversionStats} to the results
+     */
+    public Worker(final Gpx2FitOptions defaults, final int threads, final ConversionCache cache,
+                  final boolean stats) {
+        this.defaults = defaults;
+        this.threads = Math.max(1, threads);
+        this.cache = cache;
+        this.stats = stats;
+    }
+
+    /**
+     * Runs all the jobs until the end of the input.
+     *
+     * @return Number of failed jobs
+     */
+    public int run(final BufferedReader in, final PrintStream out) throws IOException, InterruptedException {
+        final AtomicInteger failures = new AtomicInteger();
+        // Don't read more jobs than can be started soon
+        final Semaphore pending = new Semaphore(2 * threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                pending.acquire();
+                final String job = line;
+                executor.execute(() -> {
+                    try {
+                        final StringBuilder result = new StringBuilder();
+                        if (!runJob(job, result)) {
+                            failures.incrementAndGet();
+                        }
+                        synchronized (out) {
+                            out.println(result);
+                            out.flush();
+                        }
+                    } finally {
+                        pending.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        return failures.get();
+    }
+
+    /**
+     * Runs one job and appends its result.
+     *
+     * @return false if the job failed
+     */
+    private boolean runJob(final String job, final StringBuilder result) {
+        final long start = System.nanoTime();
+        result.append('{');
+        try {
+            final Map<String, Object> fields = Json.parseObject(job);
+            final Object id = fields.get("id");
+            if (id instanceof String) {
+                result.append("\"id\": ").append(Json.quote((String) id)).append(", ");
+            } else if (id instanceof BigDecimal) {
+                result.append("\"id\": ").append(id).append(", ");
+            }
+            final String input = getString(fields, "input");
+            result.append("\"input\": ").append(Json.quote(input)).append(", ");
+            final String output = getString(fields, "output");
+            result.append("\"output\": ").append(Json.quote(output)).append(", ");
+
+            final Path inputFile = Path.of(input);
+            final Path outputFile = Path.of(output);
+            final ConversionRequest request = new ConversionRequest(defaults, input);
+            final Object options = fields.get("options");
+            if (options instanceof Map) {
+                for (final Map.Entry<?, ?> option : ((Map<?, ?>) options).entrySet()) {
+                    request.set((String) option.getKey(), toOptionValue(option.getKey(), option.getValue()));
+                }
+            } else if (options != null) {
+                throw new IllegalArgumentException("options must be an object");
+            }
+            if (request.modified == null) {
+                request.modified = new Date(Files.getLastModifiedTime(inputFile).toMillis());
+            }
+
+            final ConversionStats conversionStats = stats ? new ConversionStats() : null;
+            convert(inputFile, outputFile, request, conversionStats);
+            result.append("\"status\": \"ok\", ");
+            appendMillis(result, start);
+            result.append(", \"bytes\": ").append(Files.size(outputFile));
+            if (conversionStats != null) {
+                result.append(", \"stats\": ").append(conversionStats.toJson());
+            }
+            result.append('}');
+            return true;
+        } catch (final Exception e) {
+            result.append("\"status\": \"error\", \"error\": ").append(Json.quote(e.toString())).append(", ");
+            appendMillis(result, start);
+            result.append('}');
+            return false;
+        }
+    }
+
+    private void convert(final Path inputFile, final Path outputFile, final ConversionRequest request,
+                         final ConversionStats conversionStats) throws IOException {
+        final Path parent = outputFile.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        if (cache != null) {
+            try (final InputStream fit = cache.convert(() -> new BufferedInputStream(Files.newInputStream(inputFile)),
+                    request.name, request.options, request.modified, conversionStats)) {
+                Files.copy(fit, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+        try (final InputStream inputStream = new BufferedInputStream(Files.newInputStream(inputFile))) {
+            final Gpx2Fit gpx2fit = new Gpx2Fit(request.name, inputStream, request.options, conversionStats);
+            gpx2fit.writeFit(outputFile.toFile(), request.modified);
+        }
+    }
+
+    private static String getString(final Map<String, Object> fields, final String name) {
+        final Object value = fields.get(name);
+        if (!(value instanceof String) || ((String) value).isEmpty()) {
+            throw new IllegalArgumentException(name + " is missing");
+        }
+        return (String) value;
+    }
+
+    private static String toOptionValue(final Object name, final Object value) {
+        if (value instanceof String || value instanceof Boolean) {
+            return value.toString();
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        throw new IllegalArgumentException("Invalid value of " + name + ": " + value);
+    }
+
+    private static void appendMillis(final StringBuilder result, final long start) {
+        result.append(String.format(Locale.ROOT, "\"millis\": %.3f", (System.nanoTime() - start) / 1E6));
+    }
+}
@@ -0,0 +1,39 @@
+package ch.bubendorf.gpx2fit.fit;
+
+/**
+ * The CRC-16 of the FIT protocol (CRC-16/ARC: reflected polynomial 0xA001, initial value 0), byte-wise with a
+ * table. Same result as com.garmin.fit.CRC.get16.
+ * <p>
+ * The CRC of a byte sequence followed by its own CRC (little endian) is 0. As the 14-byte FIT header ends with
+ * the CRC of its first 12 bytes, the CRC at the end of a FIT file is the CRC of the data records alone and can be
+ * calculated before the header is known.
+ */
+final class Crc16 {
+
+    private static final int POLYNOMIAL = 0xA001;
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private Crc16() {
+    }
+
+    static int update(final int crc, final byte b) {
+        return (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+    }
+
+    static int update(int crc, final byte[] bytes, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ bytes[i]) & 0xFF];
+        }
+        return crc;
+    }
+}
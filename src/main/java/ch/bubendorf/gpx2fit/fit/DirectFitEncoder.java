@@ -0,0 +1,590 @@
+package ch.bubendorf.gpx2fit.fit;
+
+import com.garmin.fit.CoursePoint;
+import com.garmin.fit.CoursePointMesg;
+import com.garmin.fit.DateTime;
+import com.garmin.fit.FieldDefinition;
+import com.garmin.fit.Fit;
+import com.garmin.fit.FitRuntimeException;
+import com.garmin.fit.Mesg;
+import com.garmin.fit.MesgDefinition;
+import com.garmin.fit.MesgNum;
+import com.garmin.fit.RecordMesg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A FitEncoder writing into a ByteBuffer, which is either returned as a whole or streamed to a channel.
+ * <p>
+ * Record and CoursePoint messages written with {@link #writeRecord} and {@link #writeCoursePoint} are encoded
+ * straight from the primitive values without creating any object. All other messages are encoded by the FIT SDK
+ * into the same buffer. Definitions are written and reused by the same rules as in com.garmin.fit.BufferEncoder,
+ * so the result is byte-identical to {@link FitBufferEncoder}. The only exception: if a local message was last
+ * defined by a typed write, a following {@link #write(Mesg)} always writes a new definition.
+ * <p>
+ * The header of a FIT file contains the size of the data. When writing to a SeekableByteChannel, the header is
+ * patched in {@link #close()}. Any other channel needs the size in advance, which can be determined with a first
+ * pass through an encoder from {@link #sizeOnly()}. The CRC at the end does not depend on the header.
+ * <p>
+ * The buffer is reused by {@link #open()}. Not thread-safe.
+ */
+public class DirectFitEncoder implements FitEncoder {
+
+    private static final int HEADER_SIZE = 14;
+    private static final int LOCAL_NUM = 0;
+    private static final int MAX_FIELDS = 6;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int ENUM = Fit.BASE_TYPE_ENUM;
+    private static final int STRING = Fit.BASE_TYPE_STRING;
+    private static final int UINT16 = Fit.BASE_TYPE_UINT16;
+    private static final int SINT32 = Fit.BASE_TYPE_SINT32;
+    private static final int UINT32 = Fit.BASE_TYPE_UINT32;
+    private static final long UINT16_MAX = 0xFFFFL;
+    private static final long UINT32_MAX = 0xFFFFFFFFL;
+    private static final int MAX_STRING_SIZE = 255;
+
+    private enum Target {
+        // Everything in the buffer, close() returns it
+        MEMORY,
+        // Streamed, the header is patched at the end
+        SEEKABLE,
+        // Streamed with the header written first
+        SIZED,
+        // Nothing is written, only the size is counted
+        SIZE_ONLY
+    }
+
+    private final Target target;
+    private final WritableByteChannel channel;
+    private final long expectedDataSize;
+    private long headerPosition;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // Number of bytes of the file no longer in the buffer
+    private long drained;
+    private int crc;
+    private int crcPosition;
+
+    private final Definition[] definitions = new Definition[16];
+
+    // The typed message being written
+    private final Definition layout = new Definition(MAX_FIELDS);
+    private final long[] values = new long[MAX_FIELDS];
+    private byte[] text;
+
+    private String lastName;
+    private byte[] lastNameBytes;
+
+    private final OutputStream stream = new OutputStream() {
+        @Override
+        public void write(final int b) {
+            ensureRemaining(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            ensureRemaining(len);
+            buffer.put(b, off, len);
+        }
+    };
+
+    /**
+     * An encoder keeping the whole file in memory.
+     */
+    public DirectFitEncoder() {
+        this(Target.MEMORY, null, -1);
+    }
+
+    /**
+     * An encoder streaming the file to the channel, starting at its current position. The header is written
+     * again when the encoder is closed.
+     */
+    public DirectFitEncoder(final SeekableByteChannel channel) {
+        this(Target.SEEKABLE, channel, -1);
+    }
+
+    /**
+     * An encoder streaming the file to the channel.
+     *
+     * @param dataSize The size of the data as given by {@link #getDataSize()} of an encoder from
+     *                 {@link #sizeOnly()} after writing the same messages
+     */
+    public DirectFitEncoder(final WritableByteChannel channel, final long dataSize) {
+        this(Target.SIZED, channel, dataSize);
+    }
+
+    private DirectFitEncoder(final Target target, final WritableByteChannel channel, final long dataSize) {
+        this.target = target;
+        this.channel = channel;
+        this.expectedDataSize = dataSize;
+        if (dataSize > UINT32_MAX) {
+            throw new FitRuntimeException("FIT file too large");
+        }
+        for (int i = 0; i < definitions.length; i++) {
+            definitions[i] = new Definition(MAX_FIELDS);
+        }
+        open();
+    }
+
+    /**
+     * An encoder that writes nothing but determines the size of the data.
+     */
+    public static DirectFitEncoder sizeOnly() {
+        return new DirectFitEncoder(Target.SIZE_ONLY, null, -1);
+    }
+
+    /**
+     * Starts a new file.
+     */
+    public void open() {
+        buffer.clear();
+        drained = 0;
+        if (target == Target.SEEKABLE) {
+            try {
+                headerPosition = ((SeekableByteChannel) channel).position();
+            } catch (final IOException e) {
+                throw new FitRuntimeException(e);
+            }
+        }
+        if (target == Target.SIZED) {
+            buffer.put(getHeader(expectedDataSize));
+        } else {
+            buffer.put(new byte[HEADER_SIZE]);
+        }
+        crc = 0;
+        crcPosition = HEADER_SIZE;
+        for (final Definition definition : definitions) {
+            definition.clear();
+        }
+    }
+
+    /**
+     * Size of the data (without header and CRC) written so far. Also valid after closing an encoder from
+     * {@link #sizeOnly()}.
+     */
+    public long getDataSize() {
+        return drained + buffer.position() - HEADER_SIZE;
+    }
+
+    /**
+     * Size of the file with header and CRC for the given size of the data.
+     */
+    public static long getFileSize(final long dataSize) {
+        return HEADER_SIZE + dataSize + 2;
+    }
+
+    /**
+     * Completes the file with the header and the CRC.
+     *
+     * @return The FIT file of an encoder writing to memory, else null
+     */
+    public byte[] close() {
+        updateCrc();
+        final long dataSize = getDataSize();
+        if (dataSize > UINT32_MAX) {
+            throw new FitRuntimeException("FIT file too large");
+        }
+        if (target == Target.SIZED && dataSize != expectedDataSize) {
+            throw new FitRuntimeException("Data size " + dataSize + " instead of " + expectedDataSize);
+        }
+        if (target == Target.SIZE_ONLY) {
+            return null;
+        }
+
+        // The CRC of the header including its own CRC is 0, so the CRC of the data is the CRC of the file
+        ensureRemaining(2);
+        buffer.put((byte) crc);
+        buffer.put((byte) (crc >> 8));
+
+        switch (target) {
+            case MEMORY:
+                buffer.put(0, getHeader(dataSize));
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            case SEEKABLE:
+                drain();
+                try {
+                    final SeekableByteChannel seekableChannel = (SeekableByteChannel) channel;
+                    final long end = seekableChannel.position();
+                    seekableChannel.position(headerPosition);
+                    writeFully(ByteBuffer.wrap(getHeader(dataSize)));
+                    seekableChannel.position(end);
+                } catch (final IOException e) {
+                    throw new FitRuntimeException(e);
+                }
+                return null;
+            default:
+                drain();
+                return null;
+        }
+    }
+
+    private static byte[] getHeader(final long dataSize) {
+        final byte[] header = new byte[HEADER_SIZE];
+        header[0] = (byte) HEADER_SIZE;
+        header[1] = (byte) Fit.ProtocolVersion.V2_0.getVersion();
+        header[2] = (byte) Fit.PROFILE_VERSION;
+        header[3] = (byte) (Fit.PROFILE_VERSION >> 8);
+        header[4] = (byte) dataSize;
+        header[5] = (byte) (dataSize >> 8);
+        header[6] = (byte) (dataSize >> 16);
+        header[7] = (byte) (dataSize >> 24);
+        header[8] = '.';
+        header[9] = 'F';
+        header[10] = 'I';
+        header[11] = 'T';
+        final int headerCrc = Crc16.update(0, header, 0, 12);
+        header[12] = (byte) headerCrc;
+        header[13] = (byte) (headerCrc >> 8);
+        return header;
+    }
+
+    @Override
+    public void writeRecord(final int positionLat, final int positionLong, final float distance,
+                            final long timestamp, final float altitude, final float speed) {
+        layout.start(MesgNum.RECORD);
+        add(RecordMesg.PositionLatFieldNum, 4, SINT32, positionLat);
+        add(RecordMesg.PositionLongFieldNum, 4, SINT32, positionLong);
+        add(RecordMesg.DistanceFieldNum, 4, UINT32, scale(distance, 100, 0, UINT32_MAX));
+        add(RecordMesg.TimestampFieldNum, 4, UINT32, toFitTime(timestamp));
+        if (!Float.isNaN(altitude)) {
+            add(RecordMesg.AltitudeFieldNum, 2, UINT16, scale(altitude, 5, 500, UINT16_MAX));
+        }
+        add(RecordMesg.SpeedFieldNum, 2, UINT16, scale(speed, 1000, 0, UINT16_MAX));
+        writeLayout();
+    }
+
+    @Override
+    public void writeCoursePoint(final int positionLat, final int positionLong, final String name) {
+        layout.start(MesgNum.COURSE_POINT);
+        add(CoursePointMesg.PositionLatFieldNum, 4, SINT32, positionLat);
+        add(CoursePointMesg.PositionLongFieldNum, 4, SINT32, positionLong);
+        addName(name);
+        add(CoursePointMesg.TypeFieldNum, 1, ENUM, CoursePoint.GENERIC.getValue());
+        writeLayout();
+    }
+
+    @Override
+    public void writeCoursePoint(final int positionLat, final int positionLong, final String name,
+                                 final float distance, final long timestamp) {
+        layout.start(MesgNum.COURSE_POINT);
+        add(CoursePointMesg.PositionLatFieldNum, 4, SINT32, positionLat);
+        add(CoursePointMesg.PositionLongFieldNum, 4, SINT32, positionLong);
+        addName(name);
+        add(CoursePointMesg.TypeFieldNum, 1, ENUM, CoursePoint.GENERIC.getValue());
+        add(CoursePointMesg.DistanceFieldNum, 4, UINT32, scale(distance, 100, 0, UINT32_MAX));
+        add(CoursePointMesg.TimestampFieldNum, 4, UINT32, toFitTime(timestamp));
+        writeLayout();
+    }
+
+    @Override
+    public void write(final MesgDefinition mesgDefinition) {
+        mesgDefinition.write(stream);
+        definitions[mesgDefinition.getLocalNum()].set(mesgDefinition);
+    }
+
+    @Override
+    public void write(final Mesg mesg) {
+        final Definition definition = definitions[mesg.getLocalNum()];
+        if (definition.mesgDefinition == null || !definition.mesgDefinition.supports(mesg)) {
+            write(new MesgDefinition(mesg));
+        }
+        mesg.write(stream, definition.mesgDefinition);
+    }
+
+    @Override
+    public void write(final List<? extends Mesg> mesgs) {
+        for (final Mesg mesg : mesgs) {
+            write(mesg);
+        }
+    }
+
+    @Override
+    public void onMesg(final Mesg mesg) {
+        write(mesg);
+    }
+
+    @Override
+    public void onMesgDefinition(final MesgDefinition mesgDefinition) {
+        write(mesgDefinition);
+    }
+
+    private void add(final int num, final int size, final int type, final long value) {
+        values[layout.count] = value;
+        layout.add(num, size, type);
+    }
+
+    private void addName(final String name) {
+        if (name != lastName) {
+            final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length + 1 > MAX_STRING_SIZE) {
+                throw new FitRuntimeException("String exceeds 254 bytes");
+            }
+            lastName = name;
+            lastNameBytes = bytes;
+        }
+        text = lastNameBytes;
+        add(CoursePointMesg.NameFieldNum, text.length + 1, STRING, 0);
+    }
+
+    /**
+     * Scaled value like com.garmin.fit.Field. A value outside of the range of the base type is invalid.
+     */
+    private static long scale(final float value, final double scale, final double offset, final long max) {
+        final long scaled = Math.round(((double) value + offset) * scale);
+        return scaled < 0 || scaled > max ? max : scaled;
+    }
+
+    private static long toFitTime(final long timestamp) {
+        final long fitTime = (timestamp - DateTime.OFFSET) / 1000;
+        return fitTime < 0 || fitTime > UINT32_MAX ? UINT32_MAX : fitTime;
+    }
+
+    private void writeLayout() {
+        final Definition definition = definitions[LOCAL_NUM];
+        if (!definition.supports(layout)) {
+            definition.set(layout);
+            writeDefinition(definition);
+        }
+
+        ensureRemaining(1 + definition.dataSize);
+        buffer.put((byte) LOCAL_NUM);
+        for (int f = 0; f < definition.count; f++) {
+            final int type = definition.type[f];
+            final int size = definition.size[f];
+            final int index = layout.indexOf(definition.num[f]);
+            int written = 0;
+            if (index >= 0) {
+                if (type == STRING) {
+                    buffer.put(text);
+                    buffer.put((byte) 0);
+                } else {
+                    putValue(values[index], layout.size[index]);
+                }
+                written = layout.size[index];
+            }
+            putInvalid(type, size - written);
+        }
+    }
+
+    private void writeDefinition(final Definition definition) {
+        ensureRemaining(6 + 3 * definition.count);
+        buffer.put((byte) (0x40 | LOCAL_NUM));
+        buffer.put((byte) 0);
+        buffer.put((byte) Fit.ARCH_ENDIAN_BIG);
+        buffer.put((byte) (definition.mesgNum >> 8));
+        buffer.put((byte) definition.mesgNum);
+        buffer.put((byte) definition.count);
+        for (int f = 0; f < definition.count; f++) {
+            buffer.put((byte) definition.num[f]);
+            buffer.put((byte) definition.size[f]);
+            buffer.put((byte) definition.type[f]);
+        }
+    }
+
+    private void putValue(final long value, final int size) {
+        switch (size) {
+            case 1:
+                buffer.put((byte) value);
+                break;
+            case 2:
+                buffer.putShort((short) value);
+                break;
+            case 4:
+                buffer.putInt((int) value);
+                break;
+            default:
+                buffer.putLong(value);
+                break;
+        }
+    }
+
+    /**
+     * Fills the given number of bytes with the invalid value of the base type.
+     */
+    private void putInvalid(final int type, final int size) {
+        final int baseSize = Fit.baseTypeSizes[type & Fit.BASE_TYPE_NUM_MASK];
+        for (int i = 0; i < size; i += baseSize) {
+            switch (type) {
+                case Fit.BASE_TYPE_SINT8:
+                    buffer.put((byte) 0x7F);
+                    break;
+                case Fit.BASE_TYPE_ENUM:
+                case Fit.BASE_TYPE_UINT8:
+                case Fit.BASE_TYPE_BYTE:
+                    buffer.put((byte) 0xFF);
+                    break;
+                case Fit.BASE_TYPE_SINT16:
+                    buffer.putShort((short) 0x7FFF);
+                    break;
+                case Fit.BASE_TYPE_UINT16:
+                    buffer.putShort((short) 0xFFFF);
+                    break;
+                case Fit.BASE_TYPE_SINT32:
+                    buffer.putInt(0x7FFFFFFF);
+                    break;
+                case Fit.BASE_TYPE_UINT32:
+                    buffer.putInt(0xFFFFFFFF);
+                    break;
+                case Fit.BASE_TYPE_FLOAT32:
+                    buffer.putFloat(Float.NaN);
+                    break;
+                case Fit.BASE_TYPE_FLOAT64:
+                    buffer.putDouble(Double.NaN);
+                    break;
+                case Fit.BASE_TYPE_SINT64:
+                    buffer.putLong(Long.MAX_VALUE);
+                    break;
+                case Fit.BASE_TYPE_UINT64:
+                    buffer.putLong(-1L);
+                    break;
+                default:
+                    // String and the z types
+                    for (int b = 0; b < baseSize; b++) {
+                        buffer.put((byte) 0);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void ensureRemaining(final int size) {
+        if (buffer.remaining() < size) {
+            if (target != Target.MEMORY) {
+                drain();
+            }
+            if (buffer.remaining() < size) {
+                updateCrc();
+                final ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + size));
+                buffer.flip();
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+            }
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the channel and empties it.
+     */
+    private void drain() {
+        updateCrc();
+        buffer.flip();
+        drained += buffer.remaining();
+        if (target != Target.SIZE_ONLY) {
+            try {
+                writeFully(buffer);
+            } catch (final IOException e) {
+                throw new FitRuntimeException(e);
+            }
+        }
+        buffer.clear();
+        crcPosition = 0;
+    }
+
+    private void writeFully(final ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void updateCrc() {
+        crc = Crc16.update(crc, buffer.array(), crcPosition, buffer.position() - crcPosition);
+        crcPosition = buffer.position();
+    }
+
+    /**
+     * The fields of a local message definition, with the SDK definition if it was written by the SDK.
+     */
+    private static final class Definition {
+        private int mesgNum;
+        private int count;
+        private int[] num;
+        private int[] size;
+        private int[] type;
+        private int dataSize;
+        private boolean developerFields;
+        private MesgDefinition mesgDefinition;
+
+        private Definition(final int capacity) {
+            num = new int[capacity];
+            size = new int[capacity];
+            type = new int[capacity];
+            clear();
+        }
+
+        private void clear() {
+            start(-1);
+            mesgDefinition = null;
+        }
+
+        private void start(final int mesgNum) {
+            this.mesgNum = mesgNum;
+            count = 0;
+            dataSize = 0;
+            developerFields = false;
+        }
+
+        private void add(final int fieldNum, final int fieldSize, final int fieldType) {
+            if (count == num.length) {
+                num = Arrays.copyOf(num, 2 * count);
+                size = Arrays.copyOf(size, 2 * count);
+                type = Arrays.copyOf(type, 2 * count);
+            }
+            num[count] = fieldNum;
+            size[count] = fieldSize;
+            type[count] = fieldType;
+            count++;
+            dataSize += fieldSize;
+        }
+
+        private void set(final Definition other) {
+            start(other.mesgNum);
+            for (int f = 0; f < other.count; f++) {
+                add(other.num[f], other.size[f], other.type[f]);
+            }
+            mesgDefinition = null;
+        }
+
+        private void set(final MesgDefinition other) {
+            start(other.getNum());
+            for (final FieldDefinition field : other.getFields()) {
+                add(field.getNum(), field.getSize(), field.getType());
+            }
+            developerFields = other.getDeveloperFields().iterator().hasNext();
+            mesgDefinition = other;
+        }
+
+        private int indexOf(final int fieldNum) {
+            for (int f = 0; f < count; f++) {
+                if (num[f] == fieldNum) {
+                    return f;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * True if the message with the given fields can be written with this definition.
+         */
+        private boolean supports(final Definition fields) {
+            if (mesgNum != fields.mesgNum || developerFields) {
+                return false;
+            }
+            for (int f = 0; f < fields.count; f++) {
+                final int index = indexOf(fields.num[f]);
+                if (index < 0 || fields.size[f] > size[index]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package ch.bubendorf.gpx2fit.fit;
 
+import com.garmin.fit.CoursePoint;
+import com.garmin.fit.CoursePointMesg;
+import com.garmin.fit.DateTime;
+import com.garmin.fit.Fit;
 import com.garmin.fit.Mesg;
 import com.garmin.fit.MesgDefinition;
 import com.garmin.fit.MesgDefinitionListener;
 import com.garmin.fit.MesgListener;
+import com.garmin.fit.RecordMesg;
 
 import java.util.List;
 
@@ -13,4 +18,78 @@ public interface FitEncoder extends MesgListener, MesgDefinitionListener {
     void write(Mesg mesg);
 
     void write(List<? extends Mesg> mesgs);
+
+    /**
+     * Write a Record message (local message 0) with the fields in this order.
+     *
+     * @param positionLat  Latitude in semicircles
+     * @param positionLong Longitude in semicircles
+     * @param distance     Distance in m
+     * @param timestamp    Time in ms since the Java epoch
+     * @param altitude     Altitude in m or NaN for no altitude field
+     * @param speed        Speed in m/s
+     */
+    default void writeRecord(final int positionLat, final int positionLong, final float distance,
+                             final long timestamp, final float altitude, final float speed) {
+        final RecordMesg r = new RecordMesg();
+        r.setLocalNum(0);
+        r.setPositionLat(positionLat);
+        r.setPositionLong(positionLong);
+        r.setDistance(distance);
+        r.setFieldValue(RecordMesg.TimestampFieldNum, 0, toFitTime(timestamp), Fit.SUBFIELD_INDEX_MAIN_FIELD);
+        if (!Float.isNaN(altitude)) {
+            r.setAltitude(altitude);
+        }
+        r.setSpeed(speed);
+        write(r);
+    }
+
+    /**
+     * Write a generic CoursePoint message (local message 0) without distance and time.
+     *
+     * @param positionLat  Latitude in semicircles
+     * @param positionLong Longitude in semicircles
+     * @param name         Name, at most 254 bytes in UTF-8
+     */
+    default void writeCoursePoint(final int positionLat, final int positionLong, final String name) {
+        final CoursePointMesg cp = new CoursePointMesg();
+        cp.setLocalNum(0);
+        cp.setPositionLat(positionLat);
+        cp.setPositionLong(positionLong);
+        cp.setName(name);
+        cp.setType(CoursePoint.GENERIC);
+        write(cp);
+    }
+
+    /**
+     * Write a generic CoursePoint message (local message 0) with distance and time.
+     *
+     * @param positionLat  Latitude in semicircles
+     * @param positionLong Longitude in semicircles
+     * @param name         Name, at most 254 bytes in UTF-8
+     * @param distance     Distance in m
+     * @param timestamp    Time in ms since the Java epoch
+     */
+    default void writeCoursePoint(final int positionLat, final int positionLong, final String name,
+                                  final float distance, final long timestamp) {
+        final CoursePointMesg cp = new CoursePointMesg();
+        cp.setLocalNum(0);
+        cp.setPositionLat(positionLat);
+        cp.setPositionLong(positionLong);
+        cp.setName(name);
+        cp.setType(CoursePoint.GENERIC);
+        cp.setDistance(distance);
+        cp.setFieldValue(CoursePointMesg.TimestampFieldNum, 0, toFitTime(timestamp), Fit.SUBFIELD_INDEX_MAIN_FIELD);
+        write(cp);
+    }
+
+    /**
+     * Seconds since the FIT epoch, like {@code new DateTime(new Date(timestamp)).getTimestamp()} without the two
+     * objects per message.
+     *
+     * @param timestamp Time in ms since the Java epoch
+     */
+    static long toFitTime(final long timestamp) {
+        return (timestamp - DateTime.OFFSET) / 1000;
+    }
 }
@@ -0,0 +1,33 @@
+package ch.bubendorf.gpx2fit.fit;
+
+import com.garmin.fit.Field;
+import com.garmin.fit.Fit;
+import com.garmin.fit.LapMesg;
+import com.garmin.fit.Profile;
+
+/**
+ * The undocumented bound_*_position fields of the lap message, used by Garmin for the bounding box of a course.
+ * The constructor of Field is protected, so a subclass can create the fields without reflection.
+ */
+public final class LapBoundsField extends Field {
+
+    private LapBoundsField(final String name, final int num) {
+        super(name, num, Fit.BASE_TYPE_SINT32, 1.0D, 0.0D, "semicircles", false, Profile.Type.SINT32);
+    }
+
+    /**
+     * Adds the bounding box in semicircles to the lap.
+     */
+    public static void addTo(final LapMesg lapMesg, final int maxLat, final int maxLong, final int minLat,
+                             final int minLong) {
+        add(lapMesg, "bound_max_position_lat", 27, maxLat);
+        add(lapMesg, "bound_max_position_long", 28, maxLong);
+        add(lapMesg, "bound_min_position_lat", 29, minLat);
+        add(lapMesg, "bound_min_position_long", 30, minLong);
+    }
+
+    private static void add(final LapMesg lapMesg, final String name, final int num, final int value) {
+        lapMesg.addField(new LapBoundsField(name, num));
+        lapMesg.setFieldValue(num, 0, value, Fit.SUBFIELD_INDEX_MAIN_FIELD);
+    }
+}
@@ -0,0 +1,90 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchConverterTest {
+
+    @TempDir
+    Path dir;
+
+    private Path tracks;
+
+    @BeforeEach
+    public void createTracks() throws IOException {
+        tracks = dir.resolve("tracks");
+        copy("mixed.gpx", tracks.resolve("mixed.gpx"));
+        copy("multi-segment.gpx", tracks.resolve("sub/multi-segment.GPX"));
+        copy("route-waypoints.gpx", tracks.resolve("sub/deeper/route-waypoints.gpx"));
+        Files.writeString(tracks.resolve("sub/broken.gpx"), "no gpx");
+        Files.writeString(tracks.resolve("sub/notes.txt"), "not converted");
+    }
+
+    @Test
+    public void directory() throws Exception {
+        final Path fit = dir.resolve("fit");
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final int failures = new BatchConverter(new Gpx2FitOptions(), 2,
+                new PrintStream(log, true, StandardCharsets.UTF_8)).convert(tracks.toString(), fit);
+
+        assertEquals(1, failures);
+        assertConverted(tracks.resolve("mixed.gpx"), fit.resolve("mixed.fit"));
+        assertConverted(tracks.resolve("sub/multi-segment.GPX"), fit.resolve("sub/multi-segment.fit"));
+        assertConverted(tracks.resolve("sub/deeper/route-waypoints.gpx"),
+                fit.resolve("sub/deeper/route-waypoints.fit"));
+        assertFalse(Files.exists(fit.resolve("sub/broken.fit")));
+        assertFalse(Files.exists(fit.resolve("sub/notes.fit")));
+
+        final String output = log.toString(StandardCharsets.UTF_8);
+        assertTrue(output.contains("Failed to convert " + tracks.resolve("sub/broken.gpx")), output);
+        assertTrue(output.contains("Converted 3 of 4 files, 1 failed"), output);
+    }
+
+    @Test
+    public void glob() throws Exception {
+        final Path fit = dir.resolve("fit");
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final int failures = new BatchConverter(new Gpx2FitOptions(), 2,
+                new PrintStream(log, true, StandardCharsets.UTF_8)).convert(tracks + "/sub/**.gpx", fit);
+
+        // The glob is case sensitive, unlike the extension of the directory mode
+        assertEquals(1, failures);
+        assertConverted(tracks.resolve("sub/deeper/route-waypoints.gpx"), fit.resolve("deeper/route-waypoints.fit"));
+        assertFalse(Files.exists(fit.resolve("multi-segment.fit")));
+        assertFalse(Files.exists(fit.resolve("mixed.fit")));
+        assertFalse(Files.exists(fit.resolve("broken.fit")));
+        assertTrue(log.toString(StandardCharsets.UTF_8).contains("Converted 1 of 2 files, 1 failed"));
+    }
+
+    private static void assertConverted(final Path gpx, final Path fit) throws IOException {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (final InputStream in = Files.newInputStream(gpx)) {
+            new Gpx2Fit(gpx.toString(), in, new Gpx2FitOptions())
+                    .writeFit(expected, new Date(Files.getLastModifiedTime(gpx).toMillis()));
+        }
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(fit), fit.toString());
+    }
+
+    private static void copy(final String resource, final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (final InputStream in = openCorpus(resource)) {
+            Files.copy(in, file);
+        }
+    }
+}
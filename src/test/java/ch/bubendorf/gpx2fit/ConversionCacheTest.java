@@ -0,0 +1,127 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.DATE;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.readCorpus;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConversionCacheTest {
+
+    @Test
+    public void hit(@TempDir final Path dir) throws IOException {
+        final byte[] gpx = readCorpus("mixed.gpx");
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new Gpx2Fit("mixed", new ByteArrayInputStream(gpx), options).writeFit(expected, DATE);
+
+        final ConversionCache cache = new ConversionCache(dir, 1024 * 1024);
+        assertArrayEquals(expected.toByteArray(), convert(cache, gpx, options));
+        assertArrayEquals(expected.toByteArray(), convert(cache, gpx, options));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(expected.size(), cache.getSize());
+
+        // A new instance finds the files of the previous one
+        final ConversionCache reopened = new ConversionCache(dir, 1024 * 1024);
+        assertArrayEquals(expected.toByteArray(), convert(reopened, gpx, options));
+        assertEquals(1, reopened.getHits());
+        try (final Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void key() throws IOException {
+        final byte[] gpx = readCorpus("mixed.gpx");
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        final String key = key(gpx, "mixed", options, DATE);
+        assertEquals(key, key(gpx, "mixed", new Gpx2FitOptions(options), DATE));
+        assertNotEquals(key, key(gpx, "other", options, DATE));
+        assertNotEquals(key, key(gpx, "mixed", options, null));
+        assertNotEquals(key, key(gpx, "mixed", options, new Date(DATE.getTime() + 1000)));
+        assertNotEquals(key, key(readCorpus("multi-segment.gpx"), "mixed", options, DATE));
+
+        final Gpx2FitOptions changed = new Gpx2FitOptions(options);
+        changed.setTolerance(0.5);
+        assertNotEquals(key, key(gpx, "mixed", changed, DATE));
+        final Gpx2FitOptions model = new Gpx2FitOptions(options);
+        model.setDistanceModel(DistanceModel.HAVERSINE);
+        assertNotEquals(key, key(gpx, "mixed", model, DATE));
+
+        // Same FIT, same key
+        final Gpx2FitOptions scheduling = new Gpx2FitOptions(options);
+        scheduling.setStreamingParser(true);
+        scheduling.setParallelReduce(true);
+        scheduling.setPipelined(true);
+        assertEquals(key, key(gpx, "mixed", scheduling, DATE));
+    }
+
+    @Test
+    public void buildId() {
+        // Written by the gradle task buildId, the key changes with every build
+        assertTrue(BuildVersion.getBuildId().matches("[0-9a-f]{64}"), BuildVersion.getBuildId());
+    }
+
+    @Test
+    public void eviction(@TempDir final Path dir) throws IOException {
+        final String[] files = {"gpx10-no-elevation.gpx", "mixed.gpx", "multi-segment.gpx"};
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        final byte[][] gpx = new byte[files.length][];
+        long size = 0;
+        for (int i = 0; i < files.length; i++) {
+            gpx[i] = readCorpus(files[i]);
+            final ConversionCache unlimited = new ConversionCache(dir.resolve(files[i]), Long.MAX_VALUE);
+            convert(unlimited, gpx[i], options);
+            size += unlimited.getSize();
+        }
+
+        // Not enough room for all the files
+        final ConversionCache cache = new ConversionCache(dir.resolve("cache"), size - 1);
+        convert(cache, gpx[0], options);
+        convert(cache, gpx[1], options);
+        // Use the first one again, so the second one is the least recently used
+        convert(cache, gpx[0], options);
+        convert(cache, gpx[2], options);
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(lookup(cache, gpx[0], options));
+        assertNull(lookup(cache, gpx[1], options));
+        assertNotNull(lookup(cache, gpx[2], options));
+    }
+
+    private static byte[] convert(final ConversionCache cache, final byte[] gpx, final Gpx2FitOptions options)
+            throws IOException {
+        try (final InputStream fit = cache.convert(() -> new ByteArrayInputStream(gpx), "mixed", options, DATE)) {
+            return fit.readAllBytes();
+        }
+    }
+
+    private static InputStream lookup(final ConversionCache cache, final byte[] gpx, final Gpx2FitOptions options)
+            throws IOException {
+        final InputStream fit = cache.lookup(key(gpx, "mixed", options, DATE));
+        if (fit != null) {
+            fit.close();
+        }
+        return fit;
+    }
+
+    private static String key(final byte[] gpx, final String name, final Gpx2FitOptions options, final Date date)
+            throws IOException {
+        return ConversionCache.key(new ByteArrayInputStream(gpx), name, options, date);
+    }
+}
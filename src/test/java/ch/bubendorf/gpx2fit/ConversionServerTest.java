@@ -0,0 +1,140 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.DATE;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.MODIFIED;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.readCorpus;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConversionServerTest {
+
+    private ConversionServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    public void start() throws IOException {
+        server = new ConversionServer(new Gpx2FitOptions(), 2, 100_000);
+        server.start(new InetSocketAddress("localhost", 0));
+    }
+
+    @AfterEach
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void convert() throws Exception {
+        final byte[] gpx = readCorpus("mixed.gpx");
+        final HttpResponse<byte[]> response = post("/convert?tolerance=5&max-points=0&track&name=Mixed%20Tour&modified=" + MODIFIED, gpx);
+        assertEquals(200, response.statusCode());
+        assertEquals("application/vnd.ant.fit", response.headers().firstValue("Content-Type").orElse(""));
+
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setTolerance(5);
+        options.setMaxPoints(0);
+        options.setRoutes(false);
+        options.setWaypoints(false);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (final InputStream in = openCorpus("mixed.gpx")) {
+            new Gpx2Fit("Mixed Tour", in, options).writeFit(expected, DATE);
+        }
+        assertArrayEquals(expected.toByteArray(), response.body());
+    }
+
+    @Test
+    public void errors() throws Exception {
+        final byte[] gpx = readCorpus("mixed.gpx");
+        assertEquals(400, post("/convert?unknown=1", gpx).statusCode());
+        assertEquals(400, post("/convert?max-points=1", gpx).statusCode());
+        assertEquals(400, post("/convert?distance-model=FLAT", gpx).statusCode());
+        assertEquals(400, post("/convert", "no gpx".getBytes()).statusCode());
+        assertEquals(413, post("/convert", new byte[100_001]).statusCode());
+
+        final HttpResponse<String> get = client.send(HttpRequest.newBuilder(uri("/convert")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, get.statusCode());
+    }
+
+    @Test
+    public void invalidContentLength() throws Exception {
+        try (final Socket socket = new Socket("localhost", server.getPort())) {
+            final OutputStream out = socket.getOutputStream();
+            out.write(("POST /convert HTTP/1.1\r\nHost: localhost\r\nContent-Length: 12x\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            final String status = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.US_ASCII)).readLine();
+            assertTrue(status.startsWith("HTTP/1.1 400 "), status);
+        }
+    }
+
+    @Test
+    public void maxConcurrent() throws Exception {
+        final ConversionServer limited = new ConversionServer(new Gpx2FitOptions(), 1, 100_000);
+        limited.start(new InetSocketAddress("localhost", 0));
+        try (final Socket socket = new Socket("localhost", limited.getPort())) {
+            // Holds the only permit while the server waits for the rest of the body
+            final OutputStream out = socket.getOutputStream();
+            out.write(("POST /convert HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000\r\n\r\n<?xml")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            final URI metrics = URI.create("http://localhost:" + limited.getPort() + "/metrics");
+            final long deadline = System.nanoTime() + 10_000_000_000L;
+            while (!client.send(HttpRequest.newBuilder(metrics).GET().build(), HttpResponse.BodyHandlers.ofString())
+                    .body().contains("\ngpx2fit_requests_active 1\n")) {
+                assertTrue(System.nanoTime() < deadline, "The first request did not start");
+                Thread.sleep(10);
+            }
+
+            final HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(URI.create("http://localhost:"
+                    + limited.getPort() + "/convert")).POST(HttpRequest.BodyPublishers.ofByteArray(
+                    readCorpus("mixed.gpx"))).build(), HttpResponse.BodyHandlers.ofByteArray());
+            assertEquals(503, response.statusCode());
+            assertEquals("1", response.headers().firstValue("Retry-After").orElse(""));
+        } finally {
+            limited.stop(0);
+        }
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        post("/convert", readCorpus("route-waypoints.gpx"));
+        post("/convert?unknown", new byte[0]);
+        final HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri("/metrics")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        final String metrics = response.body();
+        assertTrue(metrics.contains("\ngpx2fit_requests_total 2\n"), metrics);
+        assertTrue(metrics.contains("\ngpx2fit_requests_failed_total 1\n"), metrics);
+        assertTrue(metrics.contains("\ngpx2fit_request_duration_seconds_count 2\n"), metrics);
+    }
+
+    private HttpResponse<byte[]> post(final String path, final byte[] body) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path)).POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private URI uri(final String path) {
+        return URI.create("http://localhost:" + server.getPort() + path);
+    }
+}
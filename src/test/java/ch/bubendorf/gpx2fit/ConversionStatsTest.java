@@ -0,0 +1,80 @@
+package ch.bubendorf.gpx2fit;
+
+import com.garmin.fit.Decode;
+import com.garmin.fit.MesgNum;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Map;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.DATE;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConversionStatsTest {
+
+    @Test
+    public void counts() throws IOException {
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setTolerance(5);
+        options.setInjectCoursePoints(true);
+        final ConversionStats stats = new ConversionStats();
+        final Gpx2Fit gpx2Fit;
+        try (final InputStream in = openCorpus("mixed.gpx")) {
+            gpx2Fit = new Gpx2Fit("Mixed", in, options, stats);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gpx2Fit.writeFit(out, DATE);
+        final byte[] fit = out.toByteArray();
+
+        // The stats must not change the result
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (final InputStream in = openCorpus("mixed.gpx")) {
+            new Gpx2Fit("Mixed", in, options).writeFit(expected, DATE);
+        }
+        assertArrayEquals(expected.toByteArray(), fit);
+
+        final int[] records = new int[1];
+        final int[] coursePoints = new int[1];
+        new Decode().read(new ByteArrayInputStream(fit), mesg -> {
+            if (mesg.getNum() == MesgNum.RECORD) {
+                records[0]++;
+            } else if (mesg.getNum() == MesgNum.COURSE_POINT) {
+                coursePoints[0]++;
+            }
+        });
+
+        assertEquals("Mixed", stats.getCourse());
+        assertEquals(gpx2Fit.getTrkPoints().size() + gpx2Fit.getRtePoints().size() + gpx2Fit.getWayPoints().size(),
+                stats.getPointsReduced());
+        assertTrue(stats.getPointsIn() > stats.getPointsReduced());
+        assertEquals(records[0], stats.getRecords());
+        assertEquals(coursePoints[0], stats.getCoursePoints());
+        assertEquals(fit.length, stats.getOutputBytes());
+        for (final ConversionStats.Phase phase : ConversionStats.Phase.values()) {
+            assertTrue(stats.getNanos(phase) > 0, phase.name());
+            assertTrue(stats.getAllocatedBytes(phase) != 0, phase.name());
+        }
+    }
+
+    @Test
+    public void json() throws IOException {
+        final ConversionStats stats = new ConversionStats();
+        try (final InputStream in = openCorpus("route-waypoints.gpx")) {
+            new Gpx2Fit("Route \"1\"", in, new Gpx2FitOptions(), stats).writeFit(new ByteArrayOutputStream(), DATE);
+        }
+        final Map<String, Object> json = Json.parseObject(stats.toJson());
+        assertEquals("Route \"1\"", json.get("course"));
+        assertEquals(BigDecimal.valueOf(stats.getRecords()), json.get("records"));
+        assertEquals(BigDecimal.valueOf(stats.getOutputBytes()), json.get("outputBytes"));
+        final Map<?, ?> parse = (Map<?, ?>) ((Map<?, ?>) json.get("phases")).get("parse");
+        assertEquals(BigDecimal.valueOf(stats.getAllocatedBytes(ConversionStats.Phase.PARSE)),
+                parse.get("allocatedBytes"));
+    }
+}
@@ -0,0 +1,78 @@
+package ch.bubendorf.gpx2fit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The GPX files in src/test/resources/corpus and the options they are converted with by the tests which compare
+ * the FIT files of different ways to convert them.
+ */
+abstract class CorpusFixtures {
+
+    /**
+     * The creation time of the FIT files in ms since 1970.
+     */
+    static final long MODIFIED = 1682928000000L;
+    static final Date DATE = new Date(MODIFIED);
+
+    static final List<String> CORPUS = List.of(
+            "multi-segment.gpx",
+            "route-waypoints.gpx",
+            "gpx10-no-elevation.gpx",
+            "mixed.gpx");
+
+    /**
+     * Changes of the default options which the low memory mode supports as well, i.e. without a reduction.
+     */
+    static final List<Consumer<Gpx2FitOptions>> VARIANTS = List.of(
+            options -> {
+            },
+            options -> options.setInjectCoursePoints(true),
+            options -> options.setUse3dDistance(false),
+            options -> options.setMaxPoints(0),
+            options -> options.setTracks(false),
+            options -> {
+                options.setTracks(false);
+                options.setWaypoints(false);
+            },
+            options -> {
+                options.setForceSpeed(true);
+                options.setWalkingGrade(true);
+            });
+
+    /**
+     * {@link #VARIANTS} and a reduced track.
+     */
+    static final List<Consumer<Gpx2FitOptions>> ALL_VARIANTS = allVariants();
+
+    private static List<Consumer<Gpx2FitOptions>> allVariants() {
+        final List<Consumer<Gpx2FitOptions>> variants = new ArrayList<>(VARIANTS);
+        variants.add(options -> options.setTolerance(15));
+        return Collections.unmodifiableList(variants);
+    }
+
+    static InputStream openCorpus(final String file) {
+        return CorpusFixtures.class.getResourceAsStream("/corpus/" + file);
+    }
+
+    static byte[] readCorpus(final String file) throws IOException {
+        try (final InputStream in = openCorpus(file)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * The FIT of the course, created at {@link #DATE}.
+     */
+    static byte[] toFit(final Gpx2Fit gpx2Fit) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gpx2Fit.writeFit(out, DATE);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,208 @@
+package ch.bubendorf.gpx2fit;
+
+import ch.bubendorf.gpx2fit.fit.DirectFitEncoder;
+import ch.bubendorf.gpx2fit.fit.FitBufferEncoder;
+import ch.bubendorf.gpx2fit.fit.FitEncoder;
+import com.garmin.fit.DateTime;
+import com.garmin.fit.EventMesg;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.DATE;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class DirectFitEncoderTest {
+
+    private static final String[] FILES = {"gpx10-no-elevation.gpx", "mixed.gpx", "multi-segment.gpx",
+            "route-waypoints.gpx"};
+
+    @Test
+    public void sameAsSdk() throws IOException {
+        for (final String file : FILES) {
+            for (int variant = 0; variant < 5; variant++) {
+                final Gpx2FitOptions options = new Gpx2FitOptions();
+                options.setInjectCoursePoints(variant == 1 || variant == 4);
+                options.setForceSpeed(variant == 2);
+                options.setUse3dDistance(variant == 3);
+                options.setMaxPoints(variant == 4 ? 20 : 0);
+                options.setTolerance(variant == 4 ? 5 : 0);
+                final Gpx2Fit gpx2Fit;
+                try (final InputStream in = openCorpus(file)) {
+                    gpx2Fit = new Gpx2Fit(file, in, options);
+                }
+
+                final FitBufferEncoder sdkEncoder = new FitBufferEncoder();
+                gpx2Fit.writeFit(sdkEncoder, DATE);
+                final DirectFitEncoder directEncoder = new DirectFitEncoder();
+                gpx2Fit.writeFit(directEncoder, DATE);
+                assertArrayEquals(sdkEncoder.close(), directEncoder.close(), file + "/" + variant);
+            }
+        }
+    }
+
+    @Test
+    public void edgeValues() throws IOException {
+        final float[] floats = {0, -0.0f, 1.5f, -1, -500, -500.1f, 12000.2f, 1e7f, 5e9f, Float.NaN,
+                Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        final long[] times = {0, DateTime.OFFSET - 1, DateTime.OFFSET, DateTime.OFFSET + 999, 1682928000123L,
+                DateTime.OFFSET + 4294967296000L};
+        final String[] names = {"", "Start", "End", "Gr\u00fcezi", "x".repeat(200), "\u00e4".repeat(127)};
+
+        assertSame(encoder -> {
+            final Random random = new Random(1969);
+            for (int i = 0; i < 5000; i++) {
+                final int lat = random.nextInt();
+                final int lon = random.nextInt();
+                final String name = names[random.nextInt(names.length)];
+                final float distance = floats[random.nextInt(floats.length)];
+                final long time = times[random.nextInt(times.length)];
+                switch (random.nextInt(4)) {
+                    case 0:
+                        encoder.writeCoursePoint(lat, lon, name);
+                        break;
+                    case 1:
+                        encoder.writeCoursePoint(lat, lon, name, distance, time);
+                        break;
+                    case 2:
+                        final EventMesg event = new EventMesg();
+                        event.setTimestamp(new DateTime(new Date(time)));
+                        encoder.write(event);
+                        break;
+                    default:
+                        encoder.writeRecord(lat, lon, distance, time, floats[random.nextInt(floats.length)],
+                                floats[random.nextInt(floats.length)]);
+                        break;
+                }
+            }
+        });
+    }
+
+    @Test
+    public void streaming(@TempDir final Path dir) throws IOException {
+        for (final String file : FILES) {
+            final Gpx2Fit gpx2Fit;
+            try (final InputStream in = openCorpus(file)) {
+                gpx2Fit = new Gpx2Fit(file, in, new Gpx2FitOptions());
+            }
+            final FitBufferEncoder sdkEncoder = new FitBufferEncoder();
+            gpx2Fit.writeFit(sdkEncoder, DATE);
+            final byte[] expected = sdkEncoder.close();
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            gpx2Fit.writeFit(out, DATE);
+            assertArrayEquals(expected, out.toByteArray(), file);
+
+            final File fitFile = dir.resolve(file + ".fit").toFile();
+            gpx2Fit.writeFit(fitFile, DATE);
+            assertArrayEquals(expected, Files.readAllBytes(fitFile.toPath()), file);
+        }
+    }
+
+    private static void assertSame(final Consumer<FitEncoder> writer) throws IOException {
+        final FitBufferEncoder sdkEncoder = new FitBufferEncoder();
+        writer.accept(sdkEncoder);
+        final byte[] expected = sdkEncoder.close();
+
+        final DirectFitEncoder directEncoder = new DirectFitEncoder();
+        // Reusing the encoder must not change anything
+        writer.accept(directEncoder);
+        directEncoder.close();
+        directEncoder.open();
+        writer.accept(directEncoder);
+        assertArrayEquals(expected, directEncoder.close());
+
+        // Streamed to a seekable channel after some other bytes
+        final SeekableInMemoryChannel seekable = new SeekableInMemoryChannel();
+        seekable.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        final DirectFitEncoder seekableEncoder = new DirectFitEncoder(seekable);
+        writer.accept(seekableEncoder);
+        assertNull(seekableEncoder.close());
+        assertArrayEquals(expected, Arrays.copyOfRange(seekable.toByteArray(), 3, 3 + expected.length));
+
+        // Streamed with the size from a first pass
+        final DirectFitEncoder sizeEncoder = DirectFitEncoder.sizeOnly();
+        writer.accept(sizeEncoder);
+        sizeEncoder.close();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final DirectFitEncoder sizedEncoder = new DirectFitEncoder(Channels.newChannel(out), sizeEncoder.getDataSize());
+        writer.accept(sizedEncoder);
+        sizedEncoder.close();
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    /**
+     * A SeekableByteChannel in memory, enough for the encoder.
+     */
+    private static final class SeekableInMemoryChannel implements SeekableByteChannel {
+        private byte[] bytes = new byte[0];
+        private int size;
+        private int position;
+
+        @Override
+        public int write(final ByteBuffer src) {
+            final int length = src.remaining();
+            if (position + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * (position + length));
+            }
+            src.get(bytes, position, length);
+            position += length;
+            size = Math.max(size, position);
+            return length;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(final long newPosition) {
+            position = (int) newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(final long newSize) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class DistanceKernelTest {
+
+    /**
+     * Max. relative difference of the distances and ECEF coordinates of the vector kernel to the scalar ones.
+     */
+    private static final double TOLERANCE = 1E-14;
+
+    @Test
+    public void scalarSameAsModel() {
+        final TrackBuffer track = track(new Random(2301), 1001);
+        final double[] lat = track.latArray();
+        final double[] lon = track.lonArray();
+        for (final DistanceModel model : DistanceModel.values()) {
+            final double[] distances = new double[track.size()];
+            DistanceKernel.scalar().distances(model, lat, lon, 1, track.size(), distances);
+            for (int i = 1; i < track.size(); i++) {
+                assertEquals(model.distance(lat[i], lon[i], lat[i - 1], lon[i - 1]), distances[i]);
+            }
+        }
+
+        final double[] ecef = new double[3 * track.size()];
+        DistanceKernel.scalar().toEcef(lat, lon, 0, track.size(), ecef);
+        final double[] expected = new double[3];
+        for (int i = 0; i < track.size(); i++) {
+            ProjectedSegment.toEcef(lat[i], lon[i], expected, 0);
+            assertEquals(expected[0], ecef[3 * i]);
+            assertEquals(expected[1], ecef[3 * i + 1]);
+            assertEquals(expected[2], ecef[3 * i + 2]);
+        }
+    }
+
+    @Test
+    public void vectorWithinTolerance() {
+        final DistanceKernel vector = DistanceKernel.get();
+        assumeTrue(vector != DistanceKernel.scalar(), "The module jdk.incubator.vector is not available");
+
+        final TrackBuffer track = track(new Random(2302), 10007);
+        final double[] lat = track.latArray();
+        final double[] lon = track.lonArray();
+        final int n = track.size();
+        for (final DistanceModel model : DistanceModel.values()) {
+            final double[] expected = new double[n];
+            final double[] distances = new double[n];
+            DistanceKernel.scalar().distances(model, lat, lon, 1, n, expected);
+            vector.distances(model, lat, lon, 1, n, distances);
+            for (int i = 1; i < n; i++) {
+                assertEquals(expected[i], distances[i], expected[i] * TOLERANCE, model + " " + i);
+            }
+        }
+
+        final double[] expected = new double[3 * n];
+        final double[] ecef = new double[3 * n];
+        DistanceKernel.scalar().toEcef(lat, lon, 0, n, expected);
+        vector.toEcef(lat, lon, 0, n, ecef);
+        for (int i = 0; i < 3 * n; i++) {
+            assertEquals(expected[i], ecef[i], DistanceModel.EARTH_RADIUS * TOLERANCE, "ECEF " + i);
+        }
+    }
+
+    /**
+     * A random track from the equator to 80 degrees latitude across the antimeridian.
+     */
+    private static TrackBuffer track(final Random random, final int points) {
+        final TrackBuffer track = new TrackBuffer(points);
+        double lat = 0;
+        double lon = 179.5;
+        for (int i = 0; i < points; i++) {
+            track.add(null, lat, lon, 0, TrackBuffer.NO_TIME);
+            lat = Math.min(80, lat + random.nextDouble() * 0.02);
+            lon += random.nextDouble() * 0.002 - 0.0005;
+            if (lon > 180) {
+                lon -= 360;
+            }
+        }
+        return track;
+    }
+}
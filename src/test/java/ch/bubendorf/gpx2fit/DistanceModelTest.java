@@ -0,0 +1,56 @@
+package ch.bubendorf.gpx2fit;
+
+import org.gavaghan.geodesy.Ellipsoid;
+import org.gavaghan.geodesy.GeodeticCalculator;
+import org.gavaghan.geodesy.GlobalCoordinates;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DistanceModelTest {
+
+    @Test
+    public void samePoint() {
+        for (final DistanceModel model : DistanceModel.values()) {
+            assertEquals(0.0, model.distance(47.1, 7.2, 47.1, 7.2), model.name());
+        }
+    }
+
+    @Test
+    public void accuracy() {
+        assertMaxRelativeError(DistanceModel.HAVERSINE, 70, 100, 0.006);
+        assertMaxRelativeError(DistanceModel.HAVERSINE, 70, 10000, 0.006);
+        assertMaxRelativeError(DistanceModel.HAVERSINE, 70, 1000000, 0.006);
+        assertMaxRelativeError(DistanceModel.HAVERSINE, 85, 10000, 0.006);
+        assertMaxRelativeError(DistanceModel.EQUIRECTANGULAR, 70, 100, 1E-8);
+        assertMaxRelativeError(DistanceModel.EQUIRECTANGULAR, 70, 10000, 1E-6);
+        assertMaxRelativeError(DistanceModel.EQUIRECTANGULAR, 70, 1000000, 0.015);
+        assertMaxRelativeError(DistanceModel.EQUIRECTANGULAR, 85, 10000, 1.6E-5);
+    }
+
+    @Test
+    public void antimeridian() {
+        final double vincenty = DistanceModel.VINCENTY.distance(-17.0, 179.999, -17.0, -179.999);
+        assertEquals(vincenty, DistanceModel.HAVERSINE.distance(-17.0, 179.999, -17.0, -179.999), vincenty * 0.006);
+        assertEquals(vincenty, DistanceModel.EQUIRECTANGULAR.distance(-17.0, 179.999, -17.0, -179.999), vincenty * 1E-6);
+    }
+
+    private static void assertMaxRelativeError(final DistanceModel model, final double maxLat, final double distance,
+                                               final double maxError) {
+        final GeodeticCalculator calculator = new GeodeticCalculator();
+        final Random random = new Random(4711);
+        for (int i = 0; i < 10000; i++) {
+            final double lat = random.nextDouble() * maxLat;
+            final double lon = random.nextDouble() * 360 - 180;
+            final GlobalCoordinates end = calculator.calculateEndingGlobalCoordinates(Ellipsoid.WGS84,
+                    new GlobalCoordinates(lat, lon), random.nextDouble() * 360, distance);
+            final double expected = DistanceModel.VINCENTY.distance(lat, lon, end.getLatitude(), end.getLongitude());
+            final double actual = model.distance(lat, lon, end.getLatitude(), end.getLongitude());
+            assertTrue(Math.abs(actual - expected) / expected < maxError,
+                    model + " " + lat + "/" + lon + ": " + actual + " != " + expected);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.toFit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DuplicateFilterTest {
+
+    @Test
+    public void samePosition() {
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        final TrackBuffer points = new TrackBuffer();
+        assertFalse(DuplicateFilter.wrap(options, points::add) instanceof DuplicateFilter);
+
+        options.setDedupePositions(true);
+        final GpxStreamReader.PointConsumer filter = DuplicateFilter.wrap(options, points::add);
+        // Less than a semicircle apart
+        final double lat = 47.0;
+        final double lat2 = 47.0 + 1E-10;
+        assertEquals(WayPoint.toSemiCircles(lat), WayPoint.toSemiCircles(lat2));
+        filter.add("Start", lat, 7.0, 500, 1000);
+        filter.add(null, lat, 7.0, 501, 2000);
+        filter.add(null, lat2, 7.0, 502, 3000);
+        filter.add(null, 47.001, 7.0, 503, 4000);
+        filter.add(null, lat, 7.0, 504, 5000);
+        filter.add(null, lat, 7.0, 505, 5000);
+
+        assertEquals(3, points.size());
+        assertEquals("Start", points.getName(0));
+        assertEquals(1000, points.getTime(0));
+        assertEquals(4000, points.getTime(1));
+        assertEquals(5000, points.getTime(2));
+    }
+
+    @Test
+    public void sameTime() {
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setDedupeTimes(true);
+        final TrackBuffer points = new TrackBuffer();
+        final GpxStreamReader.PointConsumer filter = DuplicateFilter.wrap(options, points::add);
+        filter.add(null, 47.0, 7.0, 0, 1000);
+        filter.add(null, 47.0, 7.0, 0, 2000);
+        filter.add(null, 47.1, 7.1, 0, 2000);
+        filter.add(null, 47.2, 7.2, 0, TrackBuffer.NO_TIME);
+        filter.add(null, 47.3, 7.3, 0, TrackBuffer.NO_TIME);
+
+        assertEquals(4, points.size());
+        assertEquals(47.0, points.getLat(1));
+        assertEquals(47.2, points.getLat(2));
+        assertEquals(47.3, points.getLat(3));
+    }
+
+    @Test
+    public void allParsers(@TempDir final Path dir) throws IOException {
+        final Path file = dir.resolve("stationary.gpx");
+        new GpxGenerator().seed(25).tracks(2).points(3000).duplicates(0.4).missingTime(0.05).wayPoints(5)
+                .write(file);
+
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setMaxPoints(0);
+        final int all = convert(file, options).getTrkPoints().size();
+
+        options.setDedupePositions(true);
+        final Gpx2Fit jpx = convert(file, options);
+        final TrackBuffer points = jpx.getTrkPoints();
+        assertTrue(points.size() < all * 0.7, points.size() + " of " + all);
+        for (int i = 1; i < points.size(); i++) {
+            assertFalse(WayPoint.toSemiCircles(points.getLat(i)) == WayPoint.toSemiCircles(points.getLat(i - 1))
+                    && WayPoint.toSemiCircles(points.getLon(i)) == WayPoint.toSemiCircles(points.getLon(i - 1)));
+        }
+
+        final byte[] expected = toFit(jpx);
+        options.setStreamingParser(true);
+        assertArrayEquals(expected, toFit(convert(file, options)));
+        assertArrayEquals(expected, toFit(Gpx2Fit.lowMemory(file, "stationary", options, null)));
+        options.setPipelined(true);
+        assertArrayEquals(expected, toFit(convert(file, options)));
+        assertArrayEquals(expected, toFit(Gpx2Fit.lowMemory(file, "stationary", options, null)));
+    }
+
+    private static Gpx2Fit convert(final Path file, final Gpx2FitOptions options) throws IOException {
+        try (final InputStream in = Files.newInputStream(file)) {
+            return new Gpx2Fit("stationary", in, options);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package ch.bubendorf.gpx2fit;
+
+import io.jenetics.jpx.GPX;
+import io.jenetics.jpx.Route;
+import io.jenetics.jpx.Track;
+import io.jenetics.jpx.TrackSegment;
+import io.jenetics.jpx.WayPoint;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible GPX files for scaling and stress tests.
+ * <p>
+ * The tracks are random walks with about 15 m between the points and one point every 5 s. Waypoints and route
+ * points are scattered around the start. Elevation and time can be left out of a part of the points and a part of
+ * the track points can be duplicates of their predecessor. The same parameters and seed always give the same
+ * points.
+ * <p>
+ * {@link #build()} returns the whole GPX from GPX.builder(). {@link #write(Path)} writes the same points one by one
+ * to the file, so the size of the file is not limited by the memory.
+ * <p>
+ * Usage: GpxGenerator file [name=value ...] with the names of the setters, e.g.
+ * <code>GpxGenerator big.gpx points=10000000 segments=10 missingElevation=0.1</code>
+ */
+public class GpxGenerator {
+
+    private static final String NAMESPACE = "http://www.topografix.com/GPX/1/1";
+    private static final long START_TIME = 1682928000000L;
+
+    private long seed = 1;
+    private int tracks = 1;
+    private int segments = 1;
+    private int points = 1000;
+    private int wayPoints;
+    private int routes;
+    private int routePoints;
+    private double missingElevation;
+    private double missingTime;
+    private double duplicates;
+
+    public GpxGenerator seed(final long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public GpxGenerator tracks(final int tracks) {
+        this.tracks = tracks;
+        return this;
+    }
+
+    /**
+     * Number of segments per track.
+     */
+    public GpxGenerator segments(final int segments) {
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Number of points per segment.
+     */
+    public GpxGenerator points(final int points) {
+        this.points = points;
+        return this;
+    }
+
+    public GpxGenerator wayPoints(final int wayPoints) {
+        this.wayPoints = wayPoints;
+        return this;
+    }
+
+    public GpxGenerator routes(final int routes) {
+        this.routes = routes;
+        return this;
+    }
+
+    /**
+     * Number of points per route.
+     */
+    public GpxGenerator routePoints(final int routePoints) {
+        this.routePoints = routePoints;
+        return this;
+    }
+
+    /**
+     * Fraction (0 to 1) of the points without elevation.
+     */
+    public GpxGenerator missingElevation(final double missingElevation) {
+        this.missingElevation = missingElevation;
+        return this;
+    }
+
+    /**
+     * Fraction (0 to 1) of the points without time.
+     */
+    public GpxGenerator missingTime(final double missingTime) {
+        this.missingTime = missingTime;
+        return this;
+    }
+
+    /**
+     * Fraction (0 to 1) of the track points that are a copy of the previous point.
+     */
+    public GpxGenerator duplicates(final double duplicates) {
+        this.duplicates = duplicates;
+        return this;
+    }
+
+    /**
+     * The whole GPX in memory.
+     */
+    public GPX build() {
+        final GPX.Builder gpx = GPX.builder("gpx2fit");
+        generate(new Sink() {
+            private Track.Builder track;
+            private TrackSegment.Builder segment;
+            private Route.Builder route;
+
+            @Override
+            public void wayPoint(final WayPoint point) {
+                gpx.addWayPoint(point);
+            }
+
+            @Override
+            public void startRoute(final String name) {
+                route = Route.builder().name(name);
+            }
+
+            @Override
+            public void routePoint(final WayPoint point) {
+                route.addPoint(point);
+            }
+
+            @Override
+            public void endRoute() {
+                gpx.addRoute(route.build());
+            }
+
+            @Override
+            public void startTrack(final String name) {
+                track = Track.builder().name(name);
+            }
+
+            @Override
+            public void startSegment() {
+                segment = TrackSegment.builder();
+            }
+
+            @Override
+            public void trackPoint(final WayPoint point) {
+                segment.addPoint(point);
+            }
+
+            @Override
+            public void endSegment() {
+                track.addSegment(segment.build());
+            }
+
+            @Override
+            public void endTrack() {
+                gpx.addTrack(track.build());
+            }
+        });
+        return gpx.build();
+    }
+
+    /**
+     * Writes the GPX to the file while the points are generated.
+     */
+    public void write(final Path file) throws IOException {
+        try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            final XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("gpx");
+            xml.writeDefaultNamespace(NAMESPACE);
+            xml.writeAttribute("version", "1.1");
+            xml.writeAttribute("creator", "gpx2fit");
+            generate(new Sink() {
+                @Override
+                public void wayPoint(final WayPoint point) throws XMLStreamException {
+                    writePoint(xml, "wpt", point);
+                }
+
+                @Override
+                public void startRoute(final String name) throws XMLStreamException {
+                    xml.writeStartElement("rte");
+                    writeName(xml, name);
+                }
+
+                @Override
+                public void routePoint(final WayPoint point) throws XMLStreamException {
+                    writePoint(xml, "rtept", point);
+                }
+
+                @Override
+                public void endRoute() throws XMLStreamException {
+                    xml.writeEndElement();
+                }
+
+                @Override
+                public void startTrack(final String name) throws XMLStreamException {
+                    xml.writeStartElement("trk");
+                    writeName(xml, name);
+                }
+
+                @Override
+                public void startSegment() throws XMLStreamException {
+                    xml.writeStartElement("trkseg");
+                }
+
+                @Override
+                public void trackPoint(final WayPoint point) throws XMLStreamException {
+                    writePoint(xml, "trkpt", point);
+                }
+
+                @Override
+                public void endSegment() throws XMLStreamException {
+                    xml.writeEndElement();
+                }
+
+                @Override
+                public void endTrack() throws XMLStreamException {
+                    xml.writeEndElement();
+                }
+            });
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (final XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void writePoint(final XMLStreamWriter xml, final String element, final WayPoint point)
+            throws XMLStreamException {
+        xml.writeStartElement(element);
+        xml.writeAttribute("lat", Double.toString(point.getLatitude().doubleValue()));
+        xml.writeAttribute("lon", Double.toString(point.getLongitude().doubleValue()));
+        if (point.getElevation().isPresent()) {
+            xml.writeStartElement("ele");
+            xml.writeCharacters(Double.toString(point.getElevation().get().doubleValue()));
+            xml.writeEndElement();
+        }
+        if (point.getTime().isPresent()) {
+            xml.writeStartElement("time");
+            xml.writeCharacters(point.getTime().get().toString());
+            xml.writeEndElement();
+        }
+        if (point.getName().isPresent()) {
+            writeName(xml, point.getName().get());
+        }
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+    }
+
+    private static void writeName(final XMLStreamWriter xml, final String name) throws XMLStreamException {
+        xml.writeStartElement("name");
+        xml.writeCharacters(name);
+        xml.writeEndElement();
+    }
+
+    private void generate(final Sink sink) {
+        final Random random = new Random(seed);
+        final double startLat = 46 + random.nextDouble();
+        final double startLon = 7 + random.nextDouble();
+        try {
+            for (int w = 0; w < wayPoints; w++) {
+                sink.wayPoint(scatteredPoint(random, startLat, startLon, "Waypoint " + (w + 1), START_TIME));
+            }
+            for (int r = 0; r < routes; r++) {
+                sink.startRoute("Route " + (r + 1));
+                for (int p = 0; p < routePoints; p++) {
+                    sink.routePoint(scatteredPoint(random, startLat, startLon, "Route point " + (p + 1), START_TIME));
+                }
+                sink.endRoute();
+            }
+
+            long time = START_TIME;
+            for (int t = 0; t < tracks; t++) {
+                sink.startTrack("Track " + (t + 1));
+                double lat = startLat;
+                double lon = startLon;
+                double ele = 400 + 1000 * random.nextDouble();
+                double heading = 2 * Math.PI * random.nextDouble();
+                for (int s = 0; s < segments; s++) {
+                    sink.startSegment();
+                    WayPoint previous = null;
+                    for (int p = 0; p < points; p++) {
+                        if (previous != null && random.nextDouble() < duplicates) {
+                            sink.trackPoint(previous);
+                            continue;
+                        }
+                        heading += random.nextGaussian() * 0.3;
+                        lat += Math.cos(heading) * 0.000135;
+                        lon += Math.sin(heading) * 0.000195;
+                        ele += random.nextGaussian();
+                        time += 5000;
+                        previous = point(random, lat, lon, ele, time, null);
+                        sink.trackPoint(previous);
+                    }
+                    sink.endSegment();
+                }
+                sink.endTrack();
+            }
+        } catch (final XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private WayPoint scatteredPoint(final Random random, final double lat, final double lon, final String name,
+                                    final long time) {
+        return point(random, lat + random.nextGaussian() * 0.05, lon + random.nextGaussian() * 0.07,
+                400 + 1000 * random.nextDouble(), time, name);
+    }
+
+    /**
+     * A point with coordinates rounded to 7 and elevation to 1 decimal places, like most GPS devices write.
+     */
+    private WayPoint point(final Random random, final double lat, final double lon, final double ele, final long time,
+                           final String name) {
+        final WayPoint.Builder builder = WayPoint.builder()
+                .lat(Math.round(lat * 1E7) / 1E7)
+                .lon(Math.round(lon * 1E7) / 1E7);
+        if (random.nextDouble() >= missingElevation) {
+            builder.ele(Math.round(ele * 10) / 10.0);
+        }
+        if (random.nextDouble() >= missingTime) {
+            builder.time(time);
+        }
+        if (name != null) {
+            builder.name(name);
+        }
+        return builder.build();
+    }
+
+    private interface Sink {
+        void wayPoint(WayPoint point) throws XMLStreamException;
+
+        void startRoute(String name) throws XMLStreamException;
+
+        void routePoint(WayPoint point) throws XMLStreamException;
+
+        void endRoute() throws XMLStreamException;
+
+        void startTrack(String name) throws XMLStreamException;
+
+        void startSegment() throws XMLStreamException;
+
+        void trackPoint(WayPoint point) throws XMLStreamException;
+
+        void endSegment() throws XMLStreamException;
+
+        void endTrack() throws XMLStreamException;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: GpxGenerator file [seed|tracks|segments|points|wayPoints|routes|routePoints"
+                    + "|missingElevation|missingTime|duplicates=value ...]");
+            System.exit(1);
+        }
+        final GpxGenerator generator = new GpxGenerator();
+        final List<String> unknown = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            final String[] parts = args[i].split("=", 2);
+            final String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "seed":
+                    generator.seed(Long.parseLong(value));
+                    break;
+                case "tracks":
+                    generator.tracks(Integer.parseInt(value));
+                    break;
+                case "segments":
+                    generator.segments(Integer.parseInt(value));
+                    break;
+                case "points":
+                    generator.points(Integer.parseInt(value));
+                    break;
+                case "wayPoints":
+                    generator.wayPoints(Integer.parseInt(value));
+                    break;
+                case "routes":
+                    generator.routes(Integer.parseInt(value));
+                    break;
+                case "routePoints":
+                    generator.routePoints(Integer.parseInt(value));
+                    break;
+                case "missingElevation":
+                    generator.missingElevation(Double.parseDouble(value));
+                    break;
+                case "missingTime":
+                    generator.missingTime(Double.parseDouble(value));
+                    break;
+                case "duplicates":
+                    generator.duplicates(Double.parseDouble(value));
+                    break;
+                default:
+                    unknown.add(args[i]);
+                    break;
+            }
+        }
+        if (!unknown.isEmpty()) {
+            System.err.println("Unknown parameters: " + unknown);
+            System.exit(1);
+        }
+
+        final Path file = Paths.get(args[0]);
+        final long start = System.nanoTime();
+        generator.write(file);
+        System.out.printf("%s: %d bytes in %.1f s%n", file, Files.size(file), (System.nanoTime() - start) / 1E9);
+    }
+}
@@ -0,0 +1,64 @@
+package ch.bubendorf.gpx2fit;
+
+import io.jenetics.jpx.GPX;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class GpxGeneratorTest {
+
+    private static GpxGenerator generator(final long seed) {
+        return new GpxGenerator().seed(seed).tracks(2).segments(3).points(200).wayPoints(50).routes(2)
+                .routePoints(20).missingElevation(0.2).missingTime(0.2).duplicates(0.1);
+    }
+
+    @Test
+    public void writeSameAsBuild(@TempDir final Path dir) throws IOException {
+        final Path file = dir.resolve("generated.gpx");
+        generator(7).write(file);
+
+        final GPX expected = generator(7).build();
+        final GPX gpx = GPX.read(file);
+        assertEquals(50, expected.getWayPoints().size());
+        assertEquals(expected.getWayPoints(), gpx.getWayPoints());
+        assertEquals(expected.getRoutes(), gpx.getRoutes());
+        assertEquals(expected.getTracks(), gpx.getTracks());
+    }
+
+    @Test
+    public void reproducible(@TempDir final Path dir) throws IOException {
+        final Path file1 = dir.resolve("1.gpx");
+        final Path file2 = dir.resolve("2.gpx");
+        final Path file3 = dir.resolve("3.gpx");
+        generator(11).write(file1);
+        generator(11).write(file2);
+        generator(12).write(file3);
+        assertArrayEquals(Files.readAllBytes(file1), Files.readAllBytes(file2));
+        assertFalse(Files.readString(file1).equals(Files.readString(file3)));
+    }
+
+    @Test
+    public void parsersAgree(@TempDir final Path dir) throws IOException {
+        final Path file = dir.resolve("generated.gpx");
+        generator(3).write(file);
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setMaxPoints(0);
+        final byte[] expected = toFit(file, options);
+        options.setStreamingParser(true);
+        assertArrayEquals(expected, toFit(file, options));
+    }
+
+    private static byte[] toFit(final Path file, final Gpx2FitOptions options) throws IOException {
+        try (final InputStream in = Files.newInputStream(file)) {
+            return CorpusFixtures.toFit(new Gpx2Fit("generated", in, options));
+        }
+    }
+}
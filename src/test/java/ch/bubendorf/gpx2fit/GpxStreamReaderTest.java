@@ -0,0 +1,114 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.ALL_VARIANTS;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.CORPUS;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.toFit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GpxStreamReaderTest {
+
+    @Test
+    public void samePoints() throws IOException {
+        for (final String file : CORPUS) {
+            final Gpx2Fit jpx = convert(file, false, options -> {
+            });
+            final Gpx2Fit stax = convert(file, true, options -> {
+            });
+            assertSamePoints(file, jpx.getTrkPoints(), stax.getTrkPoints());
+            assertSamePoints(file, jpx.getRtePoints(), stax.getRtePoints());
+            assertSamePoints(file, jpx.getWayPoints(), stax.getWayPoints());
+        }
+    }
+
+    @Test
+    public void sameFit() throws IOException {
+        for (final String file : CORPUS) {
+            for (final Consumer<Gpx2FitOptions> variant : ALL_VARIANTS) {
+                final byte[] jpx = toFit(convert(file, false, variant));
+                final byte[] stax = toFit(convert(file, true, variant));
+                assertTrue(jpx.length > 0, file);
+                assertArrayEquals(jpx, stax, file);
+            }
+        }
+    }
+
+    @Test
+    public void parseTime() {
+        final List<String> texts = List.of(
+                "2023-05-01T08:00:00Z",
+                "  2023-05-01T08:00:00Z\n",
+                "2023-05-01T08:00:00",
+                "2023-05-01T08:00:00.5Z",
+                "2023-05-01T08:00:00.123456789+02:00",
+                "2023-05-01T08:00:00.1234567891Z",
+                "2023-05-01T08:00:00.Z",
+                "2023-05-01T08:00:00-18:00",
+                "2023-05-01T08:00:00+18:01",
+                "2023-05-01T08:00:00+01:60",
+                "2023-05-01T08:00:00+0100",
+                "2023-05-01T08:00:00+01:00[Europe/Zurich]",
+                "2023-05-01T08:00Z",
+                "2023-05-01t08:00:00z",
+                "2024-02-29T23:59:59Z",
+                "2023-02-29T12:00:00Z",
+                "1900-02-29T12:00:00Z",
+                "2000-02-29T12:00:00Z",
+                "2023-04-31T12:00:00Z",
+                "2023-13-01T12:00:00Z",
+                "2023-05-01T24:00:00Z",
+                "2023-05-01T23:59:60Z",
+                "1969-12-31T23:59:59.999Z",
+                "0000-01-01T00:00:00Z",
+                "9999-12-31T23:59:59.999999999-18:00",
+                "+12023-05-01T08:00:00Z",
+                "2023-05-01 08:00:00Z",
+                "2023-05-01",
+                "");
+        for (final String text : texts) {
+            assertEquals(GpxStreamReader.parseIsoTime(text.trim()), GpxStreamReader.parseTime(text), text);
+        }
+
+        final Random random = new Random(24);
+        for (int i = 0; i < 100000; i++) {
+            final String offset = random.nextBoolean() ? "Z" : String.format(Locale.ROOT, "%s%02d:%02d",
+                    random.nextBoolean() ? "+" : "-", random.nextInt(19), random.nextInt(60));
+            final String text = String.format(Locale.ROOT, "%04d-%02d-%02dT%02d:%02d:%02d.%03d%s",
+                    random.nextInt(10000), 1 + random.nextInt(12), 1 + random.nextInt(31), random.nextInt(24),
+                    random.nextInt(60), random.nextInt(60), random.nextInt(1000), offset);
+            assertEquals(GpxStreamReader.parseIsoTime(text), GpxStreamReader.parseTime(text), text);
+        }
+    }
+
+    private static void assertSamePoints(final String file, final TrackBuffer expected, final TrackBuffer actual) {
+        assertEquals(expected.size(), actual.size(), file);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getLat(i), actual.getLat(i), file);
+            assertEquals(expected.getLon(i), actual.getLon(i), file);
+            assertEquals(expected.getEle(i), actual.getEle(i), file);
+            assertEquals(expected.getTime(i), actual.getTime(i), file);
+            assertEquals(expected.getName(i), actual.getName(i), file);
+        }
+    }
+
+    private static Gpx2Fit convert(final String file, final boolean streaming,
+                                   final Consumer<Gpx2FitOptions> variant) throws IOException {
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setStreamingParser(streaming);
+        variant.accept(options);
+        try (final InputStream in = openCorpus(file)) {
+            return new Gpx2Fit(file, in, options);
+        }
+    }
+}
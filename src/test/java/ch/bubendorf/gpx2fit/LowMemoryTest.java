@@ -0,0 +1,82 @@
+package ch.bubendorf.gpx2fit;
+
+import com.garmin.fit.Decode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.CORPUS;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.VARIANTS;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.toFit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LowMemoryTest {
+
+    @Test
+    public void sameFit(@TempDir final Path dir) throws IOException {
+        for (final String file : CORPUS) {
+            final Path gpx = dir.resolve(file);
+            try (final InputStream in = openCorpus(file)) {
+                Files.copy(in, gpx, StandardCopyOption.REPLACE_EXISTING);
+            }
+            for (final Consumer<Gpx2FitOptions> variant : VARIANTS) {
+                final Gpx2FitOptions options = new Gpx2FitOptions();
+                variant.accept(options);
+                final byte[] expected;
+                try (final InputStream in = Files.newInputStream(gpx)) {
+                    expected = toFit(new Gpx2Fit(file, in, options));
+                }
+                final Gpx2Fit lowMemory = Gpx2Fit.lowMemory(gpx, file, options, null);
+                assertEquals(0, lowMemory.getTrkPoints().size(), file);
+                assertArrayEquals(expected, toFit(lowMemory), file);
+                // Reads the file again
+                assertArrayEquals(expected, toFit(lowMemory), file);
+            }
+        }
+    }
+
+    @Test
+    public void noReduction(@TempDir final Path dir) throws IOException {
+        final Path gpx = dir.resolve("generated.gpx");
+        new GpxGenerator().points(100).write(gpx);
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setTolerance(5);
+        assertThrows(IllegalArgumentException.class, () -> Gpx2Fit.lowMemory(gpx, "Reduced", options, null));
+    }
+
+    /**
+     * Converts a generated GPX in a JVM with a heap much smaller than the track. The number of points can be set
+     * with the system property gpx2fit.largeGpxPoints, e.g. to 50000000 for a file of several GB.
+     */
+    @Test
+    public void smallHeap(@TempDir final Path dir) throws IOException, InterruptedException {
+        final int points = Integer.getInteger("gpx2fit.largeGpxPoints", 1_000_000);
+        final Path gpx = dir.resolve("large.gpx");
+        final Path fit = dir.resolve("large.fit");
+        new GpxGenerator().seed(20).points(points).wayPoints(10).missingElevation(0.1).write(gpx);
+
+        final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        final Process process = new ProcessBuilder(java, "-Xmx16m", "-cp", System.getProperty("java.class.path"),
+                Main.class.getName(), "--low-memory", gpx.toString(), fit.toString())
+                .redirectErrorStream(true)
+                .start();
+        final String output = new String(process.getInputStream().readAllBytes());
+        assertTrue(process.waitFor(10, TimeUnit.MINUTES));
+        assertEquals(0, process.exitValue(), output);
+
+        try (final InputStream in = Files.newInputStream(fit)) {
+            assertTrue(new Decode().checkFileIntegrity(in));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.ALL_VARIANTS;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.CORPUS;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.toFit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PointPipelineTest {
+
+    @Test
+    public void sameFit() throws IOException {
+        for (final String file : CORPUS) {
+            for (final Consumer<Gpx2FitOptions> variant : ALL_VARIANTS) {
+                final byte[] gpx;
+                try (final InputStream in = openCorpus(file)) {
+                    gpx = in.readAllBytes();
+                }
+                assertArrayEquals(streamingFit(gpx, false, variant), streamingFit(gpx, true, variant), file);
+            }
+        }
+    }
+
+    @Test
+    public void manyChunks(@TempDir final Path dir) throws IOException {
+        // Not a multiple of the chunk size
+        final Path file = dir.resolve("generated.gpx");
+        new GpxGenerator().seed(21).tracks(2).points(PointPipeline.CHUNK_SIZE * PointPipeline.CHUNKS * 3 + 17)
+                .wayPoints(20).routes(1).routePoints(30).missingElevation(0.2).write(file);
+        final byte[] gpx = Files.readAllBytes(file);
+        final Consumer<Gpx2FitOptions> allPoints = options -> options.setMaxPoints(0);
+        assertArrayEquals(streamingFit(gpx, false, allPoints), streamingFit(gpx, true, allPoints));
+
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setPipelined(true);
+        options.setInjectCoursePoints(true);
+        final Gpx2Fit lowMemory = Gpx2Fit.lowMemory(file, "generated", options, null);
+        options.setPipelined(false);
+        assertArrayEquals(toFit(Gpx2Fit.lowMemory(file, "generated", options, null)), toFit(lowMemory));
+    }
+
+    @Test
+    public void readerFails() {
+        final byte[] gpx = ("<gpx><trk><trkseg><trkpt lat=\"47.0\" lon=\"7.0\"></trkpt><trkpt lat=\"47.1\" "
+                + "lon=\"7.1\"></trkseg></trk></gpx>").getBytes(StandardCharsets.UTF_8);
+        final AtomicInteger points = new AtomicInteger();
+        assertThrows(IOException.class, () -> PointPipeline.read(new ByteArrayInputStream(gpx),
+                new Gpx2FitOptions(), (name, lat, lon, ele, time) -> points.incrementAndGet()));
+    }
+
+    @Test
+    public void consumerFails(@TempDir final Path dir) throws IOException, InterruptedException {
+        final Path file = dir.resolve("generated.gpx");
+        new GpxGenerator().points(PointPipeline.CHUNK_SIZE * (PointPipeline.CHUNKS + 10)).write(file);
+        final AtomicInteger points = new AtomicInteger();
+        try (final InputStream in = Files.newInputStream(file)) {
+            final IllegalStateException e = assertThrows(IllegalStateException.class,
+                    () -> PointPipeline.read(in, new Gpx2FitOptions(), (name, lat, lon, ele, time) -> {
+                        if (points.incrementAndGet() == 100) {
+                            throw new IllegalStateException("Stop");
+                        }
+                    }));
+            assertEquals("Stop", e.getMessage());
+        }
+        assertEquals(100, points.get());
+        // The reader has been stopped instead of waiting for a free chunk forever
+        for (int i = 0; i < 100 && isReaderAlive(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(isReaderAlive());
+    }
+
+    private static boolean isReaderAlive() {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().equals("gpx2fit-reader"));
+    }
+
+    private static byte[] streamingFit(final byte[] gpx, final boolean pipelined,
+                                       final Consumer<Gpx2FitOptions> variant) throws IOException {
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setStreamingParser(true);
+        options.setPipelined(pipelined);
+        variant.accept(options);
+        return toFit(new Gpx2Fit("pipeline", new ByteArrayInputStream(gpx), options));
+    }
+}
@@ -0,0 +1,65 @@
+package ch.bubendorf.gpx2fit;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how Reducer.reduceParallel scales with the number of cores.
+ * <p>
+ * Usage: ReducerScalingBenchmark [points] [tolerance]. Reduces a random walk with a ForkJoinPool of 1, 2, 4, ...
+ * up to the number of available processors threads and prints the median time of the runs and the speedup
+ * compared to the sequential Reducer.reduce.
+ */
+public class ReducerScalingBenchmark {
+
+    private static final int WARMUP = 3;
+    private static final int RUNS = 7;
+
+    public static void main(final String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        final double tolerance = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+
+        final TrackBuffer track = TrackBuffer.of(ReducerTest.randomWalk(new Random(42), size));
+        final int expected = Reducer.reduce(track, tolerance).size();
+        System.out.printf("%d points, tolerance %.1f m, %d points remain%n", size, tolerance, expected);
+
+        final double sequential = median(() -> Reducer.reduce(track, tolerance).size(), expected);
+        System.out.printf("sequential: %8.1f ms%n", sequential);
+
+        final int processors = Runtime.getRuntime().availableProcessors();
+        for (int parallelism = 1; ; parallelism = Math.min(parallelism * 2, processors)) {
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                final double time = median(() -> Reducer.reduceParallel(track, tolerance, pool).size(), expected);
+                System.out.printf("%2d threads: %8.1f ms, speedup %.2f%n", parallelism, time, sequential / time);
+            } finally {
+                pool.shutdown();
+            }
+            if (parallelism == processors) {
+                break;
+            }
+        }
+    }
+
+    private static double median(final Run run, final int expected) {
+        final double[] times = new double[RUNS];
+        for (int i = -WARMUP; i < RUNS; i++) {
+            final long start = System.nanoTime();
+            final int result = run.reduce();
+            final long time = System.nanoTime() - start;
+            if (result != expected) {
+                throw new IllegalStateException(result + " != " + expected);
+            }
+            if (i >= 0) {
+                times[i] = time / 1E6;
+            }
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    private interface Run {
+        int reduce();
+    }
+}
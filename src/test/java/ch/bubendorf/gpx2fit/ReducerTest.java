@@ -1,11 +1,20 @@
 package ch.bubendorf.gpx2fit;
 
+import org.gavaghan.geodesy.Ellipsoid;
+import org.gavaghan.geodesy.GeodeticCalculator;
+import org.gavaghan.geodesy.GeodeticCurve;
+import org.gavaghan.geodesy.GlobalCoordinates;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ReducerTest {
 
@@ -44,4 +53,157 @@ public class ReducerTest {
         final List<WayPoint> red5_2 = Reducer.reduce(trk5, 30000);
         assertEquals(2, red5_2.size());
     }
+
+    @Test
+    public void sameAsRecursive() {
+        final Random random = new Random(1968);
+        for (final int size : new int[]{3, 4, 5, 10, 50, 200, 1000, 3000}) {
+            final List<WayPoint> track = randomWalk(random, size);
+            for (final double tolerance : new double[]{0.5, 5, 20, 100, 1000}) {
+                final List<WayPoint> expected = reduceRecursive(track, tolerance);
+
+                final List<WayPoint> actual = Reducer.reduce(track, tolerance);
+                assertEquals(expected.size(), actual.size(), size + "/" + tolerance);
+                for (int i = 0; i < expected.size(); i++) {
+                    assertSame(expected.get(i), actual.get(i), size + "/" + tolerance);
+                }
+
+                final TrackBuffer actualBuffer = Reducer.reduce(TrackBuffer.of(track), tolerance);
+                assertEquals(expected.size(), actualBuffer.size(), size + "/" + tolerance);
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getLat(), actualBuffer.getLat(i));
+                    assertEquals(expected.get(i).getLon(), actualBuffer.getLon(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelSameAsSequential() {
+        final Random random = new Random(3110);
+        final TrackBuffer track = TrackBuffer.of(randomWalk(random, 20000));
+        // Straight lines and repeated points give ties and the midpoint split
+        for (int i = 0; i < 2000; i++) {
+            track.add(null, 47.0 + i * 0.0001, 8.0, 0, TrackBuffer.NO_TIME);
+            track.add(null, 47.0 + i * 0.0001, 8.0, 0, TrackBuffer.NO_TIME);
+        }
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (final double tolerance : new double[]{0.5, 5, 100}) {
+                final boolean[] expected = Reducer.getKeepMask(track, tolerance);
+                for (final int threshold : new int[]{3, 64, 5000}) {
+                    assertArrayEquals(expected, Reducer.getKeepMask(track, tolerance, pool, threshold),
+                            tolerance + "/" + threshold);
+                }
+                final TrackBuffer reduced = Reducer.reduceParallel(track, tolerance, pool);
+                assertEquals(Reducer.reduce(track, tolerance).size(), reduced.size());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void straightLine() {
+        // All the points are on a meridian (a geodesic) ==> Only the first and the last remain
+        final List<WayPoint> track = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            track.add(new WayPoint(47.0 + i * 0.001, 7.0));
+        }
+        final List<WayPoint> reduced = Reducer.reduce(track, 1);
+        assertEquals(2, reduced.size());
+        assertSame(track.get(0), reduced.get(0));
+        assertSame(track.get(100), reduced.get(1));
+    }
+
+    @Test
+    public void distancePointLineErrorBound() {
+        // Compare with the geodesic distance to the segment for segments up to 10 km, points up to 2 km away
+        final GeodeticCalculator calculator = new GeodeticCalculator();
+        final Random random = new Random(2602);
+        for (int i = 0; i < 500; i++) {
+            final double lat = (random.nextDouble() * 2 - 1) * 85;
+            final double lon = random.nextDouble() * 360 - 180;
+            final double length = 10 + random.nextDouble() * 9990;
+            final double azimuth = random.nextDouble() * 360;
+            final GlobalCoordinates start = new GlobalCoordinates(lat, lon);
+            final GlobalCoordinates end = calculator.calculateEndingGlobalCoordinates(Ellipsoid.WGS84, start, azimuth, length);
+
+            // A point beside (or before/after) the segment
+            final double fraction = random.nextDouble() * 1.4 - 0.2;
+            final double offset = (random.nextDouble() * 2 - 1) * Math.min(2000, length);
+            final GlobalCoordinates foot = calculator.calculateEndingGlobalCoordinates(Ellipsoid.WGS84, start, azimuth, fraction * length);
+            final GeodeticCurve curve = calculator.calculateGeodeticCurve(Ellipsoid.WGS84, foot, end);
+            final double footAzimuth = fraction < 1 ? curve.getAzimuth() : curve.getReverseAzimuth() + 180;
+            final GlobalCoordinates point = calculator.calculateEndingGlobalCoordinates(Ellipsoid.WGS84, foot, footAzimuth + 90, offset);
+
+            // Minimum geodesic distance to the segment by a ternary search along the segment
+            double lo = 0;
+            double hi = 1;
+            for (int j = 0; j < 60; j++) {
+                final double m1 = lo + (hi - lo) / 3;
+                final double m2 = hi - (hi - lo) / 3;
+                if (geodesicDistance(calculator, start, azimuth, m1 * length, point) < geodesicDistance(calculator, start, azimuth, m2 * length, point)) {
+                    hi = m2;
+                } else {
+                    lo = m1;
+                }
+            }
+            final double expected = geodesicDistance(calculator, start, azimuth, (lo + hi) / 2 * length, point);
+
+            final double actual = Reducer.getDistancePointLine(new WayPoint(point.getLatitude(), point.getLongitude()),
+                    new WayPoint(lat, lon), new WayPoint(end.getLatitude(), end.getLongitude()));
+            assertTrue(Math.abs(actual - expected) <= 0.01 + 0.0005 * expected, actual + " != " + expected);
+        }
+    }
+
+    private static double geodesicDistance(final GeodeticCalculator calculator, final GlobalCoordinates start,
+                                           final double azimuth, final double distance, final GlobalCoordinates point) {
+        final GlobalCoordinates onSegment = calculator.calculateEndingGlobalCoordinates(Ellipsoid.WGS84, start, azimuth, distance);
+        return calculator.calculateGeodeticCurve(Ellipsoid.WGS84, onSegment, point).getEllipsoidalDistance();
+    }
+
+    static List<WayPoint> randomWalk(final Random random, final int size) {
+        final List<WayPoint> track = new ArrayList<>(size);
+        double lat = 46.0 + random.nextDouble();
+        double lon = 7.0 + random.nextDouble();
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < size; i++) {
+            heading += random.nextGaussian() * 0.5;
+            lat += Math.cos(heading) * 0.0002;
+            lon += Math.sin(heading) * 0.0003;
+            track.add(new WayPoint(lat, lon));
+        }
+        return track;
+    }
+
+    /**
+     * The original recursive implementation working on subLists, used as the reference.
+     */
+    private static List<WayPoint> reduceRecursive(final List<WayPoint> t, final double tolerance) {
+        if (tolerance <= 0 || t.size() <= 2) {
+            return t;
+        }
+        double maxDistance = 0;
+        int p = 0;
+        for (int i = 1; i < t.size() - 1; i++) {
+            final double dist = Reducer.getDistancePointLine(t.get(i), t.get(0), t.get(t.size() - 1));
+            if (dist > maxDistance) {
+                maxDistance = dist;
+                p = i;
+            }
+        }
+        if (maxDistance < Reducer.EPSILON) {
+            p = t.size() / 2;
+        }
+        if (Reducer.getDistancePointLine(t.get(p), t.get(0), t.get(t.size() - 1)) > tolerance) {
+            final List<WayPoint> t1Red = reduceRecursive(t.subList(0, p + 1), tolerance);
+            final List<WayPoint> t2Red = reduceRecursive(t.subList(p, t.size()), tolerance);
+            final List<WayPoint> result = new ArrayList<>(t1Red.size() + t2Red.size());
+            result.addAll(t1Red);
+            result.addAll(t2Red.subList(1, t2Red.size()));
+            return result;
+        }
+        return List.of(t.get(0), t.get(t.size() - 1));
+    }
 }
@@ -0,0 +1,104 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.toFit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReductionIndexTest {
+
+    @Test
+    public void sameAsReducer() {
+        final Random random = new Random(1702);
+        for (final int size : new int[]{3, 4, 10, 200, 5000}) {
+            final TrackBuffer track = TrackBuffer.of(ReducerTest.randomWalk(random, size));
+            final ReductionIndex index = new ReductionIndex(track);
+            for (final double tolerance : new double[]{0.1, 1, 5, 20, 100, 1000}) {
+                assertArrayEquals(Reducer.getKeepMask(track, tolerance), index.getKeepMask(tolerance),
+                        size + "/" + tolerance);
+                assertEquals(Reducer.reduce(track, tolerance).size(), index.count(tolerance));
+            }
+        }
+    }
+
+    @Test
+    public void reduceTo() {
+        final TrackBuffer track = TrackBuffer.of(ReducerTest.randomWalk(new Random(2112), 3000));
+        final ReductionIndex index = new ReductionIndex(track);
+        for (final int maxPoints : new int[]{2, 3, 17, 500, 2999}) {
+            final boolean[] keep = index.getKeepMaskTo(maxPoints);
+            assertEquals(maxPoints, count(keep));
+            assertTrue(keep[0] && keep[2999]);
+
+            // The smallest tolerance for at most maxPoints keeps a subset of the points
+            final double tolerance = index.getTolerance(maxPoints);
+            assertTrue(index.count(tolerance) <= maxPoints);
+            assertTrue(index.count(Math.nextDown(tolerance)) > maxPoints);
+            final boolean[] toleranceKeep = index.getKeepMask(tolerance);
+            for (int i = 0; i < keep.length; i++) {
+                assertTrue(keep[i] || !toleranceKeep[i]);
+            }
+        }
+        assertEquals(3000, index.reduceTo(0).size());
+        assertEquals(0, index.getTolerance(3000));
+    }
+
+    @Test
+    public void withTolerance() throws IOException {
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        final Gpx2Fit gpx2Fit = convert("multi-segment.gpx", options);
+        for (final double tolerance : new double[]{0, 3, 15, 50}) {
+            options.setTolerance(tolerance);
+            assertArrayEquals(toFit(convert("multi-segment.gpx", options)), toFit(gpx2Fit.withTolerance(tolerance)),
+                    "" + tolerance);
+        }
+        assertEquals(10, gpx2Fit.withMaxPoints(10).getTrkPoints().size());
+    }
+
+    @Test
+    public void derivedFromReduced() throws IOException {
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setTolerance(15);
+        assertThrows(UnsupportedOperationException.class, () -> convert("multi-segment.gpx", options)
+                .withTolerance(3));
+
+        final Gpx2Fit gpx2Fit;
+        try (final InputStream in = openCorpus("multi-segment.gpx")) {
+            gpx2Fit = Gpx2Fit.forDerivedCourses("multi-segment.gpx", in, options, null);
+        }
+        assertArrayEquals(toFit(convert("multi-segment.gpx", options)), toFit(gpx2Fit));
+        options.setTolerance(3);
+        assertArrayEquals(toFit(convert("multi-segment.gpx", options)), toFit(gpx2Fit.withTolerance(3)));
+    }
+
+    @Test
+    public void writeAgain() throws IOException {
+        // Without any times the speed is forced, the calculated times must not change the points
+        final Gpx2Fit gpx2Fit = convert("route-waypoints.gpx", new Gpx2FitOptions());
+        assertArrayEquals(toFit(gpx2Fit), toFit(gpx2Fit));
+    }
+
+    private static Gpx2Fit convert(final String file, final Gpx2FitOptions options) throws IOException {
+        try (final InputStream in = openCorpus(file)) {
+            return new Gpx2Fit(file, in, options);
+        }
+    }
+
+    private static int count(final boolean[] keep) {
+        int count = 0;
+        for (final boolean k : keep) {
+            if (k) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,114 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrackSummaryTest {
+
+    @Test
+    public void whileAdding() {
+        final List<WayPoint> points = ReducerTest.randomWalk(new Random(1807), 2000);
+        final Random random = new Random(1807);
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        final TrackSummary summary = new TrackSummary(options);
+        final TrackBuffer fed = new TrackBuffer(summary);
+        final TrackBuffer plain = new TrackBuffer();
+        for (int i = 0; i < points.size(); i++) {
+            // Some points without an elevation
+            final double ele = i % 7 == 3 ? Double.NaN : 500 + random.nextDouble() * 100;
+            fed.add(null, points.get(i).getLat(), points.get(i).getLon(), ele, 1682928000000L + i * 1000L);
+            plain.add(null, points.get(i).getLat(), points.get(i).getLon(), ele, 1682928000000L + i * 1000L);
+        }
+        assertTrue(Double.isNaN(plain.getTotalDist(1)));
+
+        final TrackSummary expected = TrackSummary.of(plain, options);
+        assertEquals(2000, summary.getCount());
+        assertEquals(expected.getTotalDistance(), summary.getTotalDistance());
+        assertEquals(expected.getTotalAscent(), summary.getTotalAscent());
+        assertEquals(expected.getTotalDescent(), summary.getTotalDescent());
+        assertEquals(expected.getCourseNumber(), summary.getCourseNumber());
+        for (int i = 0; i < fed.size(); i++) {
+            assertEquals(plain.getTotalDist(i), fed.getTotalDist(i));
+        }
+
+        double totalDist = 0;
+        double minLat = 90;
+        double maxEle = 0;
+        for (int i = 1; i < plain.size(); i++) {
+            totalDist += plain.distance3D(i, i - 1, options.getDistanceModel());
+            minLat = Math.min(minLat, plain.getLat(i));
+            maxEle = Double.isNaN(plain.getEle(i)) ? maxEle : Math.max(maxEle, plain.getEle(i));
+        }
+        minLat = Math.min(minLat, plain.getLat(0));
+        maxEle = Math.max(maxEle, plain.getEle(0));
+        assertEquals(totalDist, summary.getTotalDistance(), 1E-6);
+        assertEquals(totalDist, fed.getTotalDist(1999), 1E-6);
+        assertEquals(minLat, summary.getMinLat());
+        assertEquals(maxEle, summary.getMaxEle());
+        assertTrue(summary.getMinLon() < summary.getMaxLon());
+    }
+
+    @Test
+    public void parallel() {
+        final List<WayPoint> points = ReducerTest.randomWalk(new Random(2203), TrackSummary.PARALLEL_THRESHOLD * 5 + 3);
+        final Random random = new Random(2203);
+        final TrackBuffer serial = new TrackBuffer();
+        final TrackBuffer parallel = new TrackBuffer();
+        for (int i = 0; i < points.size(); i++) {
+            final double ele = i % 11 == 5 ? Double.NaN : 500 + random.nextDouble() * 100;
+            serial.add(null, points.get(i).getLat(), points.get(i).getLon(), ele, 1682928000000L + i * 1000L);
+            parallel.add(null, points.get(i).getLat(), points.get(i).getLon(), ele, 1682928000000L + i * 1000L);
+        }
+        final Gpx2FitOptions options = new Gpx2FitOptions();
+        options.setWalkingGrade(true);
+
+        final TrackSummary expected = TrackSummary.of(serial, options);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final TrackSummary summary;
+        try {
+            summary = TrackSummary.ofParallel(parallel, options, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        // Identical, not only within a rounding error
+        assertEquals(expected.getCount(), summary.getCount());
+        assertEquals(expected.getTotalDistance(), summary.getTotalDistance());
+        assertEquals(expected.getTotalAscent(), summary.getTotalAscent());
+        assertEquals(expected.getTotalDescent(), summary.getTotalDescent());
+        assertEquals(expected.getMinEle(), summary.getMinEle());
+        assertEquals(expected.getMaxEle(), summary.getMaxEle());
+        assertEquals(expected.getMinLat(), summary.getMinLat());
+        assertEquals(expected.getMinLon(), summary.getMinLon());
+        assertEquals(expected.getMaxLat(), summary.getMaxLat());
+        assertEquals(expected.getMaxLon(), summary.getMaxLon());
+        assertEquals(expected.getStartLat(), summary.getStartLat());
+        assertEquals(expected.getStartTime(), summary.getStartTime());
+        assertEquals(expected.getEndLon(), summary.getEndLon());
+        assertEquals(expected.getEndTime(), summary.getEndTime());
+        assertEquals(expected.getForcedTime(), summary.getForcedTime());
+        assertEquals(expected.getCourseNumber(), summary.getCourseNumber());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.getTotalDist(i), parallel.getTotalDist(i));
+        }
+    }
+
+    @Test
+    public void withoutElevation() {
+        final TrackBuffer track = new TrackBuffer(new TrackSummary(new Gpx2FitOptions()));
+        track.add(null, 47.0, 7.0, Double.NaN, TrackBuffer.NO_TIME);
+        track.add(null, 47.001, 7.0, Double.NaN, TrackBuffer.NO_TIME);
+        final TrackSummary summary = track.getSummary();
+        assertTrue(Double.isNaN(summary.getMinEle()));
+        assertTrue(Double.isNaN(summary.getTotalAscent()));
+        assertTrue(Double.isNaN(summary.getTotalDescent()));
+        assertEquals(111.2, summary.getTotalDistance(), 0.1);
+        assertEquals(0, track.getTotalDist(0));
+    }
+}
@@ -0,0 +1,103 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class VisvalingamReducerTest {
+
+    @Test
+    public void exactCount() {
+        final TrackBuffer track = TrackBuffer.of(ReducerTest.randomWalk(new Random(1204), 5000));
+        for (final int maxPoints : new int[]{2, 3, 10, 1000, 4999}) {
+            final TrackBuffer reduced = VisvalingamReducer.reduce(track, maxPoints);
+            assertEquals(maxPoints, reduced.size());
+            assertEquals(track.getLat(0), reduced.getLat(0));
+            assertEquals(track.getLat(4999), reduced.getLat(maxPoints - 1));
+        }
+        assertSame(track, VisvalingamReducer.reduce(track, 0));
+        assertSame(track, VisvalingamReducer.reduce(track, 5000));
+        assertSame(track, VisvalingamReducer.reduce(track, 10000));
+    }
+
+    @Test
+    public void keepsCorners() {
+        // The points of a square with many points on every side ==> The corners remain
+        final TrackBuffer track = new TrackBuffer();
+        final double[][] corners = {{47.0, 7.0}, {47.0, 7.01}, {47.01, 7.01}, {47.01, 7.0}, {47.0, 7.0}};
+        for (int side = 0; side < 4; side++) {
+            for (int i = 0; i < 50; i++) {
+                final double f = i / 50.0;
+                track.add(null, corners[side][0] + f * (corners[side + 1][0] - corners[side][0]),
+                        corners[side][1] + f * (corners[side + 1][1] - corners[side][1]), 0, TrackBuffer.NO_TIME);
+            }
+        }
+        track.add(null, 47.0, 7.0, 0, TrackBuffer.NO_TIME);
+
+        final TrackBuffer reduced = VisvalingamReducer.reduce(track, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(corners[i][0], reduced.getLat(i), 1E-12);
+            assertEquals(corners[i][1], reduced.getLon(i), 1E-12);
+        }
+    }
+
+    @Test
+    public void sameAsNaive() {
+        final Random random = new Random(2411);
+        for (final int size : new int[]{3, 10, 100, 400}) {
+            final TrackBuffer track = TrackBuffer.of(ReducerTest.randomWalk(random, size));
+            for (final int maxPoints : new int[]{2, 3, size / 2, size - 1}) {
+                if (maxPoints >= 2) {
+                    assertArrayEquals(reduceNaive(track, maxPoints), VisvalingamReducer.getKeepMask(track, maxPoints),
+                            size + "/" + maxPoints);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reference implementation: Recalculate all the areas and search the smallest one in every step.
+     */
+    private static boolean[] reduceNaive(final TrackBuffer t, final int maxPoints) {
+        final double[] ecef = ProjectedSegment.toEcef(t);
+        final List<Integer> points = new ArrayList<>();
+        final double[] area = new double[t.size()];
+        for (int i = 0; i < t.size(); i++) {
+            points.add(i);
+        }
+        for (int i = 1; i < t.size() - 1; i++) {
+            area[i] = VisvalingamReducer.area(ecef, i - 1, i, i + 1);
+        }
+        while (points.size() > maxPoints) {
+            int min = 1;
+            for (int i = 2; i < points.size() - 1; i++) {
+                final int point = points.get(i);
+                final int minPoint = points.get(min);
+                if (area[point] < area[minPoint] || (area[point] == area[minPoint] && point < minPoint)) {
+                    min = i;
+                }
+            }
+            final double minArea = area[points.get(min)];
+            points.remove(min);
+            if (min > 1) {
+                area[points.get(min - 1)] = Math.max(minArea,
+                        VisvalingamReducer.area(ecef, points.get(min - 2), points.get(min - 1), points.get(min)));
+            }
+            if (min < points.size() - 1) {
+                area[points.get(min)] = Math.max(minArea,
+                        VisvalingamReducer.area(ecef, points.get(min - 1), points.get(min), points.get(min + 1)));
+            }
+        }
+        final boolean[] keep = new boolean[t.size()];
+        for (final int point : points) {
+            keep[point] = true;
+        }
+        return keep;
+    }
+}
@@ -0,0 +1,111 @@
+package ch.bubendorf.gpx2fit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ch.bubendorf.gpx2fit.CorpusFixtures.DATE;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.MODIFIED;
+import static ch.bubendorf.gpx2fit.CorpusFixtures.openCorpus;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WorkerTest {
+
+    @Test
+    public void jobs(@TempDir final Path dir) throws Exception {
+        final String[] files = {"gpx10-no-elevation.gpx", "mixed.gpx", "multi-segment.gpx", "route-waypoints.gpx"};
+        final StringBuilder jobs = new StringBuilder();
+        for (int i = 0; i < files.length; i++) {
+            final Path input = dir.resolve(files[i]);
+            try (final InputStream in = openCorpus(files[i])) {
+                Files.copy(in, input);
+            }
+            jobs.append("{\"id\": ").append(i).append(", \"input\": ").append(Json.quote(input.toString()))
+                    .append(", \"output\": ").append(Json.quote(dir.resolve("fit/" + i + ".fit").toString()))
+                    .append(", \"options\": {\"max-points\": 20, \"budget\": true, \"track\": true, \"name\": \"Job ")
+                    .append(i).append("\", \"modified\": ").append(MODIFIED).append("}}\n\n");
+        }
+        jobs.append("{\"id\": \"missing\", \"input\": ").append(Json.quote(dir.resolve("missing.gpx").toString()))
+                .append(", \"output\": \"missing.fit\"}\n");
+        jobs.append("{\"id\": \"options\", \"input\": \"a.gpx\", \"output\": \"a.fit\", ")
+                .append("\"options\": {\"max-points\": 1}}\n");
+        jobs.append("no json\n");
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int failures = new Worker(new Gpx2FitOptions(), 3, null).run(new BufferedReader(
+                new StringReader(jobs.toString())), new PrintStream(out, true, StandardCharsets.UTF_8));
+        assertEquals(3, failures);
+
+        final Map<Object, Map<String, Object>> results = new HashMap<>();
+        for (final String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            final Map<String, Object> result = Json.parseObject(line);
+            results.put(result.get("id"), result);
+        }
+        assertEquals(files.length + 3, results.size());
+
+        for (int i = 0; i < files.length; i++) {
+            final Map<String, Object> result = results.get(BigDecimal.valueOf(i));
+            assertEquals("ok", result.get("status"), result.toString());
+            final Gpx2FitOptions options = new Gpx2FitOptions();
+            options.setMaxPoints(20);
+            options.setPointBudget(true);
+            options.setRoutes(false);
+            options.setWaypoints(false);
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (final InputStream in = Files.newInputStream(dir.resolve(files[i]))) {
+                new Gpx2Fit("Job " + i, in, options).writeFit(expected, DATE);
+            }
+            final byte[] actual = Files.readAllBytes(dir.resolve("fit/" + i + ".fit"));
+            assertArrayEquals(expected.toByteArray(), actual, files[i]);
+            assertEquals(BigDecimal.valueOf(actual.length), result.get("bytes"));
+        }
+        assertEquals("error", results.get("missing").get("status"));
+        assertTrue(((String) results.get("options").get("error")).contains("max number of points"));
+        assertTrue(results.containsKey(null));
+    }
+
+    @Test
+    public void nested() throws Exception {
+        final String job = "{\"id\": \"deep\", \"options\": " + "[".repeat(Json.MAX_DEPTH + 1)
+                + "]".repeat(Json.MAX_DEPTH + 1) + "}\n";
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int failures = new Worker(new Gpx2FitOptions(), 1, null).run(new BufferedReader(new StringReader(job)),
+                new PrintStream(out, true, StandardCharsets.UTF_8));
+        assertEquals(1, failures);
+        final Map<String, Object> result = Json.parseObject(out.toString(StandardCharsets.UTF_8).trim());
+        assertEquals("error", result.get("status"));
+        assertTrue(((String) result.get("error")).contains("Nested deeper than " + Json.MAX_DEPTH), result.toString());
+    }
+
+    @Test
+    public void json() {
+        final Map<String, Object> object = Json.parseObject(" {\"a\": [1, -2.5e1, true, false, null], "
+                + "\"b\": {\"c\": \"x\\\"\\\\\\n\\u00e4\"}, \"d\": {}} ");
+        assertEquals(List.of(BigDecimal.ONE, new BigDecimal("-2.5e1"), true, false),
+                ((List<?>) object.get("a")).subList(0, 4));
+        assertEquals("x\"\\\n\u00e4", ((Map<?, ?>) object.get("b")).get("c"));
+        assertEquals("x\"\\\n\u00e4", Json.parseObject("{\"q\": " + Json.quote("x\"\\\n\u00e4") + "}").get("q"));
+        assertThrows(IllegalArgumentException.class, () -> Json.parseObject("{\"a\": 1"));
+        assertThrows(IllegalArgumentException.class, () -> Json.parseObject("{\"a\": 1} x"));
+        assertThrows(IllegalArgumentException.class, () -> Json.parseObject("[1]"));
+
+        final String nested = "{\"a\": " + "[".repeat(Json.MAX_DEPTH) + "]".repeat(Json.MAX_DEPTH) + "}";
+        assertEquals(1, Json.parseObject(nested).size());
+        assertThrows(IllegalArgumentException.class, () -> Json.parseObject("{\"a\": " + "{\"b\": ".repeat(1000000)));
+    }
+}
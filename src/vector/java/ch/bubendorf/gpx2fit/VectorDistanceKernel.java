@@ -0,0 +1,136 @@
+package ch.bubendorf.gpx2fit;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static ch.bubendorf.gpx2fit.GeoCalculator.WGS84_A;
+import static ch.bubendorf.gpx2fit.GeoCalculator.WGS84_E2;
+
+/**
+ * {@link DistanceKernel} with the Vector API, processing the preferred number of lanes per step (8 with AVX-512).
+ * HAVERSINE, EQUIRECTANGULAR and the ECEF coordinates are computed lanewise with the same formulas and the same
+ * order of the operations as the scalar code, only the trigonometric functions differ. VINCENTY is iterative with a
+ * data dependent number of iterations and is computed by the scalar formula. The remaining points after the last
+ * full vector are computed with a masked vector instead of a scalar loop.
+ * <p>
+ * Requires the incubator module jdk.incubator.vector, only loaded by {@link DistanceKernel#get()} if it is available.
+ */
+final class VectorDistanceKernel extends DistanceKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorMask<Double> ALL = SPECIES.maskAll(true);
+    private static final double DEGREES_TO_RADIANS = Math.toRadians(1.0);
+    private static final double DIAMETER = 2 * DistanceModel.EARTH_RADIUS;
+    private static final double B_FACTOR = 1.0 - WGS84_E2;
+    private static final double MERIDIAN_FACTOR = WGS84_A * (1.0 - WGS84_E2);
+
+    /**
+     * Offsets of the x coordinates of the lanes in the interleaved ECEF array.
+     */
+    private static final int[] ECEF_INDEX = new int[SPECIES.length()];
+
+    static {
+        for (int i = 0; i < ECEF_INDEX.length; i++) {
+            ECEF_INDEX[i] = 3 * i;
+        }
+    }
+
+    @Override
+    void distances(final DistanceModel model, final double[] lat, final double[] lon, final int from, final int to,
+                   final double[] out) {
+        if (model == DistanceModel.VINCENTY) {
+            DistanceKernel.scalar().distances(model, lat, lon, from, to, out);
+            return;
+        }
+        final boolean haversine = model == DistanceModel.HAVERSINE;
+        final int upper = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < upper; i += SPECIES.length()) {
+            if (haversine) {
+                haversine(lat, lon, i, ALL, out);
+            } else {
+                equirectangular(lat, lon, i, ALL, out);
+            }
+        }
+        if (i < to) {
+            final VectorMask<Double> tail = SPECIES.indexInRange(i, to);
+            if (haversine) {
+                haversine(lat, lon, i, tail, out);
+            } else {
+                equirectangular(lat, lon, i, tail, out);
+            }
+        }
+    }
+
+    private static void haversine(final double[] lat, final double[] lon, final int i, final VectorMask<Double> m,
+                                  final double[] out) {
+        final DoubleVector phi1 = DoubleVector.fromArray(SPECIES, lat, i, m).mul(DEGREES_TO_RADIANS);
+        final DoubleVector phi2 = DoubleVector.fromArray(SPECIES, lat, i - 1, m).mul(DEGREES_TO_RADIANS);
+        final DoubleVector lon1 = DoubleVector.fromArray(SPECIES, lon, i, m);
+        final DoubleVector lon2 = DoubleVector.fromArray(SPECIES, lon, i - 1, m);
+        final DoubleVector sinDeltaPhi = phi2.sub(phi1).div(2).lanewise(VectorOperators.SIN);
+        final DoubleVector sinDeltaLambda = lon2.sub(lon1).mul(DEGREES_TO_RADIANS).div(2)
+                .lanewise(VectorOperators.SIN);
+        final DoubleVector h = sinDeltaPhi.mul(sinDeltaPhi).add(phi1.lanewise(VectorOperators.COS)
+                .mul(phi2.lanewise(VectorOperators.COS)).mul(sinDeltaLambda).mul(sinDeltaLambda));
+        h.sqrt().min(1.0).lanewise(VectorOperators.ASIN).mul(DIAMETER).intoArray(out, i, m);
+    }
+
+    private static void equirectangular(final double[] lat, final double[] lon, final int i,
+                                        final VectorMask<Double> m, final double[] out) {
+        final DoubleVector lat1 = DoubleVector.fromArray(SPECIES, lat, i, m);
+        final DoubleVector lat2 = DoubleVector.fromArray(SPECIES, lat, i - 1, m);
+        DoubleVector deltaLon = DoubleVector.fromArray(SPECIES, lon, i - 1, m)
+                .sub(DoubleVector.fromArray(SPECIES, lon, i, m));
+        // See GeoCalculator.deltaLon
+        final VectorMask<Double> east = deltaLon.compare(VectorOperators.GT, 180.0);
+        final VectorMask<Double> west = deltaLon.compare(VectorOperators.LT, -180.0);
+        deltaLon = deltaLon.lanewise(VectorOperators.SUB, 360.0, east).lanewise(VectorOperators.ADD, 360.0, west);
+
+        // See GeoCalculator.metersPerDegreeLon and metersPerDegreeLat
+        final DoubleVector phi = lat1.add(lat2).div(2).mul(DEGREES_TO_RADIANS);
+        final DoubleVector sinPhi = phi.lanewise(VectorOperators.SIN);
+        final DoubleVector w = DoubleVector.broadcast(SPECIES, 1.0).sub(sinPhi.mul(WGS84_E2).mul(sinPhi));
+        final DoubleVector perDegreeLon = DoubleVector.broadcast(SPECIES, WGS84_A).div(w.sqrt())
+                .mul(phi.lanewise(VectorOperators.COS)).mul(DEGREES_TO_RADIANS);
+        final DoubleVector perDegreeLat = DoubleVector.broadcast(SPECIES, MERIDIAN_FACTOR).div(w.mul(w.sqrt()))
+                .mul(DEGREES_TO_RADIANS);
+
+        final DoubleVector x = deltaLon.mul(perDegreeLon);
+        final DoubleVector y = lat2.sub(lat1).mul(perDegreeLat);
+        x.mul(x).add(y.mul(y)).sqrt().intoArray(out, i, m);
+    }
+
+    @Override
+    void toEcef(final double[] lat, final double[] lon, final int from, final int to, final double[] ecef) {
+        final int upper = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < upper; i += SPECIES.length()) {
+            toEcef(lat, lon, i, ALL, ecef);
+        }
+        if (i < to) {
+            toEcef(lat, lon, i, SPECIES.indexInRange(i, to), ecef);
+        }
+    }
+
+    private static void toEcef(final double[] lat, final double[] lon, final int i, final VectorMask<Double> m,
+                               final double[] ecef) {
+        final DoubleVector phi = DoubleVector.fromArray(SPECIES, lat, i, m).mul(DEGREES_TO_RADIANS);
+        final DoubleVector lambda = DoubleVector.fromArray(SPECIES, lon, i, m).mul(DEGREES_TO_RADIANS);
+        final DoubleVector sinPhi = phi.lanewise(VectorOperators.SIN);
+        final DoubleVector cosPhi = phi.lanewise(VectorOperators.COS);
+        final DoubleVector n = DoubleVector.broadcast(SPECIES, WGS84_A)
+                .div(DoubleVector.broadcast(SPECIES, 1.0).sub(sinPhi.mul(WGS84_E2).mul(sinPhi)).sqrt());
+        final DoubleVector nCosPhi = n.mul(cosPhi);
+        nCosPhi.mul(lambda.lanewise(VectorOperators.COS)).intoArray(ecef, 3 * i, ECEF_INDEX, 0, m);
+        nCosPhi.mul(lambda.lanewise(VectorOperators.SIN)).intoArray(ecef, 3 * i + 1, ECEF_INDEX, 0, m);
+        n.mul(B_FACTOR).mul(sinPhi).intoArray(ecef, 3 * i + 2, ECEF_INDEX, 0, m);
+    }
+
+    @Override
+    public String toString() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+}